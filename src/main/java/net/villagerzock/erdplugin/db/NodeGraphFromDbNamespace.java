@@ -99,13 +99,12 @@ public final class NodeGraphFromDbNamespace {
                     new Point2D.Double(x0 + gx * dx, y0 + gy * dy),
                     tableName,
                     attrs,
-                    new Vector2(0, 0),
-                    graph.getChanged()
+                    new Vector2(0, 0)
             );
 
             tableNameToIndex.put(tableName.toLowerCase(Locale.ROOT), graph.nodes().size());
 
-            graph.nodes().add(node);
+            graph.addNode(node);
             tableToIndex.put(table, graph.nodes().size() - 1);
 
             System.out.println("[RE] addedNode: " + tableName + " attrs=" + attrs.size());
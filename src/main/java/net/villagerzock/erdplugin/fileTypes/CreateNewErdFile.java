@@ -4,15 +4,21 @@ import com.intellij.ide.actions.CreateFileFromTemplateAction;
 import com.intellij.ide.actions.CreateFileFromTemplateDialog;
 import com.intellij.ide.fileTemplates.FileTemplate;
 import com.intellij.ide.fileTemplates.FileTemplateManager;
-import com.intellij.openapi.actionSystem.AnAction;
+import com.intellij.openapi.command.WriteCommandAction;
 import com.intellij.openapi.project.Project;
 import com.intellij.openapi.util.NlsContexts;
+import com.intellij.openapi.util.io.FileUtilRt;
+import com.intellij.openapi.vfs.VirtualFile;
 import com.intellij.psi.PsiDirectory;
 import com.intellij.psi.PsiFile;
+import com.intellij.psi.PsiManager;
+import com.intellij.util.IncorrectOperationException;
 import net.villagerzock.erdplugin.ui.ErdIo;
 import org.jetbrains.annotations.NonNls;
 import org.jetbrains.annotations.NotNull;
 
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.util.Properties;
 
 public final class CreateNewErdFile extends CreateFileFromTemplateAction {
@@ -34,6 +40,17 @@ public final class CreateNewErdFile extends CreateFileFromTemplateAction {
         Properties props = FileTemplateManager.getInstance(project).getDefaultProperties();
         props.setProperty("LATEST_VERSION", ErdIo.LATEST_VERSION);
 
-        return super.createFileFromTemplate(name, template, dir);
+        // ErdFileType ist binär, die Datei also nicht per PSI aus Text erzeugen sondern das Template direkt als Bytes schreiben
+        String fileName = FileUtilRt.getExtension(name).isEmpty() ? name + "." + ErdFileType.INSTANCE.getDefaultExtension() : name;
+        try {
+            byte[] content = template.getText(props).getBytes(StandardCharsets.UTF_8);
+            return WriteCommandAction.writeCommandAction(project).withName("Create ERD Diagram").compute(() -> {
+                VirtualFile file = dir.getVirtualFile().createChildData(this, fileName);
+                file.setBinaryContent(content);
+                return PsiManager.getInstance(project).findFile(file);
+            });
+        } catch (IOException e) {
+            throw new IncorrectOperationException(e);
+        }
     }
 }
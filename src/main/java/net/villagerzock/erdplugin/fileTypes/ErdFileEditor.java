@@ -1,5 +1,6 @@
 package net.villagerzock.erdplugin.fileTypes;
 
+import com.intellij.openapi.application.ApplicationManager;
 import com.intellij.openapi.fileEditor.FileEditor;
 import com.intellij.openapi.fileEditor.FileEditorLocation;
 import com.intellij.openapi.fileEditor.FileEditorState;
@@ -7,7 +8,11 @@ import com.intellij.openapi.project.Project;
 import com.intellij.openapi.util.UserDataHolderBase;
 import com.intellij.openapi.vfs.VirtualFile;
 import com.intellij.util.Alarm;
+import com.intellij.util.concurrency.AppExecutorUtil;
+import net.villagerzock.erdplugin.node.NodeGraphSnapshot;
 import net.villagerzock.erdplugin.ui.ErdEditorPanel;
+import net.villagerzock.erdplugin.ui.ErdIo;
+import net.villagerzock.erdplugin.ui.ErdJournal;
 import org.jetbrains.annotations.Nls;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
@@ -15,6 +20,8 @@ import org.jetbrains.annotations.Nullable;
 import javax.swing.*;
 import java.beans.PropertyChangeListener;
 import java.beans.PropertyChangeSupport;
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
 
 public class ErdFileEditor extends UserDataHolderBase implements FileEditor {
     private ErdEditorPanel panel;
@@ -32,6 +39,16 @@ public class ErdFileEditor extends UserDataHolderBase implements FileEditor {
         panel.setOnAnyChange(()->{
             setModified(true);
         });
+
+        // ein übrig gebliebenes Journal wird weitergeführt bzw. beim nächsten Speichern kompaktiert
+        if (ErdJournal.exists(file)) {
+            try {
+                journal = new ErdJournal(file, panel.getModel());
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+        if (panel.isRecovered()) setModified(true);
     }
 
     public void setModified(boolean value) {
@@ -102,13 +119,166 @@ public class ErdFileEditor extends UserDataHolderBase implements FileEditor {
 
     @Override
     public void dispose() {
+        // ein noch ausstehendes oder noch laufendes Speichern würde verworfen, also synchron den aktuellen Stand schreiben;
+        // das Journal wird beim Schließen kompaktiert
+        disposed = true;
+        boolean pendingJournal = journal != null && !journal.isEmpty();
+        if ((modified || pendingJournal || savesInFlight > 0) && panel.save() && journal != null) {
+            // nach dem noch ausstehenden Anhängen
+            ErdJournal discarded = journal;
+            saveExecutor.execute(() -> {
+                try {
+                    discarded.discard();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            });
+        }
+        if (journal != null) journal.close();
         panel.dispose();
     }
 
-    public boolean save(){
-        boolean ok = panel.save();
-        if (ok) setModified(false);
-        return ok;
+    // ein Thread, damit Snapshots in der Reihenfolge serialisiert (und geschrieben) werden in der sie entstanden sind;
+    // alle Zugriffe auf die Journal-Datei laufen ebenfalls hier
+    private final ExecutorService saveExecutor = AppExecutorUtil.createBoundedApplicationPoolExecutor("ERD Save", 1);
+    // Hash des zuletzt geschriebenen Inhalts, wird nur auf dem saveExecutor gelesen / geschrieben
+    private String lastSavedHash;
+    // nach dispose() wurde synchron gespeichert, noch ausstehende (ältere) Schreibvorgänge werden verworfen
+    private boolean disposed = false;
+    // gestartete Speichervorgänge deren Inhalt noch nicht in der Datei steht, nur auf dem EDT benutzt
+    private int savesInFlight = 0;
+
+    // Edit-Journal, null wenn der Journal-Modus aus ist und kein Journal mehr übrig ist
+    private ErdJournal journal;
+    private final Alarm compactAlarm = new Alarm(Alarm.ThreadToUse.SWING_THREAD, this);
+    private static final int COMPACT_DELAY = 30_000;
+
+    /**
+     * Im Journal-Modus werden nur die Änderungen seit dem letzten Speichern angehängt, sonst wird die ganze Datei geschrieben.
+     */
+    public void save(){
+        if (ErdJournal.isEnabled() && journal == null && ErdJournal.isSupported(file)) {
+            try {
+                journal = new ErdJournal(file, panel.getModel());
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            // was vor dem Öffnen geändert wurde steht nicht im Journal
+            saveFile();
+            return;
+        }
+
+        try {
+            if (journal != null && ErdJournal.isEnabled() && !journal.needsCompaction()) {
+                append(journal, journal.drain());
+                setModified(false);
+                compactAlarm.cancelAllRequests();
+                compactAlarm.addRequest(this::compact, COMPACT_DELAY);
+                return;
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        saveFile();
+    }
+
+    /**
+     * Anhängen (inkl. force) auf dem saveExecutor, schlägt es fehl wird stattdessen die ganze Datei geschrieben.
+     */
+    private void append(ErdJournal target, String records) {
+        if (records.isEmpty()) return;
+        saveExecutor.execute(() -> {
+            try {
+                target.append(records);
+            } catch (IOException e) {
+                e.printStackTrace();
+                ApplicationManager.getApplication().invokeLater(() -> {
+                    if (!disposed) saveFile();
+                });
+            }
+        });
+    }
+
+    private void compact() {
+        if (journal != null && !journal.isEmpty()) saveFile();
+    }
+
+    /**
+     * Auf dem EDT wird nur ein Snapshot gezogen, serialisiert wird im Hintergrund. Nur das Schreiben ins VFS
+     * läuft danach wieder auf dem EDT in einer Write Action, und auch das nur wenn sich der Inhalt geändert hat.
+     * Ein offenes Journal wird dabei bis zum Snapshot in die Datei kompaktiert.
+     */
+    private void saveFile(){
+        ErdJournal compacting = journal;
+        String compactedRecords = "";
+        if (compacting != null) {
+            compactedRecords = compacting.beginCompaction();
+            if (!ErdJournal.isEnabled()) {
+                // Modus wurde ausgeschaltet, nach dieser Kompaktierung wird das Journal nicht mehr gebraucht
+                journal.close();
+                journal = null;
+            }
+        }
+        compactAlarm.cancelAllRequests();
+
+        NodeGraphSnapshot snapshot = panel.snapshot();
+        ErdIo.Encoding encoding = ErdIo.getEncoding(file);
+        setModified(false);
+        savesInFlight++;
+
+        ErdJournal finalCompacting = compacting;
+        String finalCompactedRecords = compactedRecords;
+        saveExecutor.execute(() -> {
+            // was vor dem Snapshot geändert wurde noch anhängen, ab hier gehören Records nicht mehr zum Snapshot
+            long mark = -1;
+            if (finalCompacting != null) {
+                try {
+                    finalCompacting.append(finalCompactedRecords);
+                    mark = finalCompacting.size();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+            long finalMark = mark;
+
+            ErdIo.Content content;
+            try {
+                content = ErdIo.serialize(snapshot, encoding);
+            } catch (Throwable t) {
+                t.printStackTrace();
+                ApplicationManager.getApplication().invokeLater(() -> {
+                    savesInFlight--;
+                    setModified(true);
+                });
+                return;
+            }
+
+            String hash = content.hash();
+            boolean unchanged = hash.equals(lastSavedHash);
+            lastSavedHash = hash;
+
+            ApplicationManager.getApplication().invokeLater(() -> {
+                savesInFlight--;
+                if (disposed || !file.isValid()) return;
+                try {
+                    if (!unchanged) content.writeTo(file);
+                } catch (Throwable t) {
+                    t.printStackTrace();
+                    saveExecutor.execute(() -> lastSavedHash = null);
+                    setModified(true);
+                    return;
+                }
+                if (finalCompacting != null && finalMark >= 0) {
+                    saveExecutor.execute(() -> {
+                        try {
+                            finalCompacting.compacted(finalMark, hash);
+                        } catch (IOException e) {
+                            e.printStackTrace();
+                        }
+                    });
+                }
+            });
+        });
     }
 
     @Override
@@ -35,9 +35,13 @@ public class ErdFileType implements FileType {
         return DatabaseIcons.ToolWindowDatabase;
     }
 
+    /**
+     * Eine .erd Datei ist entweder Json oder ERDB (erkannt an den Magic Bytes), der Editor liest und schreibt nur Bytes.
+     * Als Text-Datei würde die Plattform ERDB-Inhalte als Text dekodieren (Encoding, Zeilenenden) und beschädigen.
+     */
     @Override
     public boolean isBinary() {
-        return false;
+        return true;
     }
 
     @Override
@@ -47,6 +51,6 @@ public class ErdFileType implements FileType {
 
     @Override
     public @NonNls @Nullable String getCharset(@NotNull VirtualFile file, byte @NotNull [] content) {
-        return "UTF-8";
+        return null;
     }
 }
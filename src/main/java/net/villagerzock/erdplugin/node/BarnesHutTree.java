@@ -0,0 +1,216 @@
+package net.villagerzock.erdplugin.node;
+
+import java.util.Arrays;
+
+/**
+ * Quadtree über die Node-Zentren für die Abstoßung in {@link ForceLayout}. Weit entfernte Zellen
+ * (cellSize / dist &lt; theta) zählen als ein Punkt im Schwerpunkt. Flache Arrays, wird pro Iteration wiederverwendet.
+ */
+final class BarnesHutTree {
+    private static final int MAX_DEPTH = 32;
+
+    // Zellen
+    private int[] children = new int[0];   // 4 pro Zelle, -1 = keins
+    private int[] firstBody = new int[0];  // erster Punkt im Blatt, -1 = leer / innerer Knoten
+    private double[] cellX = new double[0];
+    private double[] cellY = new double[0];
+    private double[] cellSize = new double[0];
+    private double[] mass = new double[0];
+    private double[] massX = new double[0];
+    private double[] massY = new double[0];
+    private int cellCount;
+
+    // Punkte
+    private int[] nextBody = new int[0];
+    private double[] bx;
+    private double[] by;
+
+    private int[] stack = new int[64];
+
+    /**
+     * Baut den Baum für die Punkte (x[i], y[i]) mit i &lt; n neu auf.
+     */
+    void build(double[] x, double[] y, int n) {
+        this.bx = x;
+        this.by = y;
+        if (nextBody.length < n) nextBody = new int[n];
+        cellCount = 0;
+
+        double minX = Double.POSITIVE_INFINITY;
+        double minY = Double.POSITIVE_INFINITY;
+        double maxX = Double.NEGATIVE_INFINITY;
+        double maxY = Double.NEGATIVE_INFINITY;
+        for (int i = 0; i < n; i++) {
+            minX = Math.min(minX, x[i]);
+            minY = Math.min(minY, y[i]);
+            maxX = Math.max(maxX, x[i]);
+            maxY = Math.max(maxY, y[i]);
+        }
+        double size = Math.max(maxX - minX, maxY - minY) + 1.0;
+
+        int root = newCell(minX - 0.5, minY - 0.5, size);
+        for (int i = 0; i < n; i++) {
+            insert(root, i);
+        }
+
+        // Kinder haben immer einen höheren Index als ihre Eltern -> rückwärts aufsummieren
+        for (int c = cellCount - 1; c >= 0; c--) {
+            double m = 0, mx = 0, my = 0;
+            if (children[c * 4] < 0) {
+                for (int b = firstBody[c]; b >= 0; b = nextBody[b]) {
+                    m += 1;
+                    mx += bx[b];
+                    my += by[b];
+                }
+            } else {
+                for (int q = 0; q < 4; q++) {
+                    int child = children[c * 4 + q];
+                    if (child < 0 || mass[child] == 0) continue;
+                    m += mass[child];
+                    mx += massX[child] * mass[child];
+                    my += massY[child] * mass[child];
+                }
+            }
+            mass[c] = m;
+            massX[c] = m == 0 ? 0 : mx / m;
+            massY[c] = m == 0 ? 0 : my / m;
+        }
+    }
+
+    /**
+     * Summiert die Abstoßung aller anderen Punkte auf Punkt i auf.
+     * Kraft zwischen zwei Punkten: strength / (dist^2 + 1), genau wie im exakten Modus.
+     *
+     * @param out out[0] / out[1] bekommen die Kraft in x / y
+     */
+    void accumulateRepulsion(int i, double theta, double strength, double[] out) {
+        double px = bx[i];
+        double py = by[i];
+        double fx = 0, fy = 0;
+        double theta2 = theta * theta;
+
+        int sp = 0;
+        stack[sp++] = 0;
+        while (sp > 0) {
+            int c = stack[--sp];
+            if (mass[c] == 0) continue;
+
+            if (children[c * 4] < 0) {
+                for (int b = firstBody[c]; b >= 0; b = nextBody[b]) {
+                    if (b == i) continue;
+                    double dx = px - bx[b];
+                    double dy = py - by[b];
+                    if (dx == 0 && dy == 0) { dx = 0.001; dy = 0.001; }
+                    double dist2 = dx * dx + dy * dy;
+                    double dist = Math.sqrt(dist2);
+                    double f = strength / (dist2 + 1.0);
+                    fx += dx / dist * f;
+                    fy += dy / dist * f;
+                }
+                continue;
+            }
+
+            double dx = px - massX[c];
+            double dy = py - massY[c];
+            double dist2 = dx * dx + dy * dy;
+            // eine Zelle die i selbst enthält nie zusammenfassen, sonst stößt sich i (bei großem theta) von sich selbst ab
+            if (cellSize[c] * cellSize[c] < theta2 * dist2 && !contains(c, px, py)) {
+                double dist = Math.sqrt(dist2);
+                double f = strength * mass[c] / (dist2 + 1.0);
+                fx += dx / dist * f;
+                fy += dy / dist * f;
+            } else {
+                if (sp + 4 > stack.length) stack = Arrays.copyOf(stack, stack.length * 2);
+                for (int q = 0; q < 4; q++) {
+                    int child = children[c * 4 + q];
+                    if (child >= 0) stack[sp++] = child;
+                }
+            }
+        }
+
+        out[0] = fx;
+        out[1] = fy;
+    }
+
+    private void insert(int root, int body) {
+        nextBody[body] = -1;
+        int c = root;
+        int depth = 0;
+        while (true) {
+            if (children[c * 4] >= 0) {
+                c = children[c * 4 + quadrant(c, bx[body], by[body])];
+                depth++;
+                continue;
+            }
+            int existing = firstBody[c];
+            if (existing < 0) {
+                firstBody[c] = body;
+                return;
+            }
+            // gleiche Position oder zu tief -> an die Kette im Leaf hängen
+            if (depth >= MAX_DEPTH || (bx[existing] == bx[body] && by[existing] == by[body])) {
+                nextBody[body] = existing;
+                firstBody[c] = body;
+                return;
+            }
+            subdivide(c);
+            // die Kette besteht nur aus Punkten mit gleicher Position -> komplett umziehen
+            int target = children[c * 4 + quadrant(c, bx[existing], by[existing])];
+            firstBody[target] = existing;
+            firstBody[c] = -1;
+        }
+    }
+
+    private void subdivide(int c) {
+        double half = cellSize[c] / 2.0;
+        double x = cellX[c];
+        double y = cellY[c];
+        // newCell kann die Arrays vergrößern, deshalb erst anlegen und dann eintragen
+        int q0 = newCell(x, y, half);
+        int q1 = newCell(x + half, y, half);
+        int q2 = newCell(x, y + half, half);
+        int q3 = newCell(x + half, y + half, half);
+        children[c * 4] = q0;
+        children[c * 4 + 1] = q1;
+        children[c * 4 + 2] = q2;
+        children[c * 4 + 3] = q3;
+    }
+
+    private boolean contains(int c, double x, double y) {
+        return x >= cellX[c] && x < cellX[c] + cellSize[c] && y >= cellY[c] && y < cellY[c] + cellSize[c];
+    }
+
+    private int quadrant(int c, double x, double y) {
+        double half = cellSize[c] / 2.0;
+        int q = 0;
+        if (x >= cellX[c] + half) q += 1;
+        if (y >= cellY[c] + half) q += 2;
+        return q;
+    }
+
+    private int newCell(double x, double y, double size) {
+        if (cellCount == cellX.length) grow();
+        int c = cellCount++;
+        cellX[c] = x;
+        cellY[c] = y;
+        cellSize[c] = size;
+        firstBody[c] = -1;
+        children[c * 4] = -1;
+        children[c * 4 + 1] = -1;
+        children[c * 4 + 2] = -1;
+        children[c * 4 + 3] = -1;
+        return c;
+    }
+
+    private void grow() {
+        int capacity = Math.max(64, cellX.length * 2);
+        children = Arrays.copyOf(children, capacity * 4);
+        firstBody = Arrays.copyOf(firstBody, capacity);
+        cellX = Arrays.copyOf(cellX, capacity);
+        cellY = Arrays.copyOf(cellY, capacity);
+        cellSize = Arrays.copyOf(cellSize, capacity);
+        mass = Arrays.copyOf(mass, capacity);
+        massX = Arrays.copyOf(massX, capacity);
+        massY = Arrays.copyOf(massY, capacity);
+    }
+}
@@ -0,0 +1,415 @@
+package net.villagerzock.erdplugin.node;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Force-Directed-Layout auf Kopien der Positionen, {@link #step()} darf also auf jedem Thread laufen.
+ * Abstoßung exakt (O(n²)) oder per {@link BarnesHutTree} genähert, Genauigkeit über {@link #setTheta(double)}.
+ */
+public final class ForceLayout {
+    public enum Repulsion {
+        EXACT,
+        BARNES_HUT
+    }
+
+    /** 0 = genauso wie EXACT, größer = schneller aber ungenauer */
+    public static final double DEFAULT_THETA = 0.8;
+
+    // --- Tuning ---
+    public static final int ITERATIONS = 220;
+    private static final double PADDING = 24.0;            // Mindestabstand zwischen Nodes
+    private static final double IDEAL_EDGE_LENGTH = 260.0; // Ziel-Länge einer Connection
+    private static final double REPULSION_STRENGTH = 85000.0;
+    private static final double ATTRACTION_STRENGTH = 0.012; // je kleiner, desto "weicher"
+    private static final double DAMPING = 0.85;            // Bewegung dämpfen (0..1)
+    private static final double MAX_STEP = 45.0;           // max. Bewegung pro Iteration
+    private static final double COOLING = 0.985;           // "Temperatur" sinkt pro Iteration
+
+    // Fallback size für Nodes die noch nicht gerendert wurden (size == 0,0)
+    private static final int FALLBACK_W = 220;
+    private static final int FALLBACK_H = 140;
+
+    private final Node[] nodes;
+    private final int n;
+    private final double[] x;
+    private final double[] y;
+    private final double[] w;
+    private final double[] h;
+    private final int[] edgeFrom;
+    private final int[] edgeTo;
+
+    private final double[] vx;
+    private final double[] vy;
+    private final double[] fx;
+    private final double[] fy;
+
+    // Node-Zentren für die Repulsion
+    private final double[] cx;
+    private final double[] cy;
+    private final double[] force = new double[2];
+    private final BarnesHutTree tree = new BarnesHutTree();
+    private final CollisionGrid grid;
+
+    private Repulsion repulsion = Repulsion.BARNES_HUT;
+    private double theta = DEFAULT_THETA;
+    private double temperature = 1.0;
+    private int iteration = 0;
+
+    public ForceLayout(NodeGraph graph) {
+        this.nodes = graph.nodes().toArray(Node[]::new);
+        this.n = nodes.length;
+        this.x = new double[n];
+        this.y = new double[n];
+        this.w = new double[n];
+        this.h = new double[n];
+
+        for (int i = 0; i < n; i++) {
+            Node node = nodes[i];
+            x[i] = node.getPosition().getX();
+            y[i] = node.getPosition().getY();
+            w[i] = node.getSize().x() <= 0 ? FALLBACK_W : node.getSize().x();
+            h[i] = node.getSize().y() <= 0 ? FALLBACK_H : node.getSize().y();
+        }
+
+        List<NodeGraph.Connection> connections = graph.connections();
+        int[] from = new int[connections.size()];
+        int[] to = new int[connections.size()];
+        int edges = 0;
+        for (NodeGraph.Connection connection : connections) {
+            // nodes ist eine Kopie von graph.nodes(), die Indizes stimmen also überein
+            int a = graph.getIndexOf(connection.from());
+            int b = graph.getIndexOf(connection.to());
+            if (a < 0 || b < 0) continue;
+            from[edges] = a;
+            to[edges] = b;
+            edges++;
+        }
+        this.edgeFrom = Arrays.copyOf(from, edges);
+        this.edgeTo = Arrays.copyOf(to, edges);
+
+        this.vx = new double[n];
+        this.vy = new double[n];
+        this.fx = new double[n];
+        this.fy = new double[n];
+        this.cx = new double[n];
+        this.cy = new double[n];
+        this.grid = new CollisionGrid(n);
+
+        spreadIfStacked();
+    }
+
+    public void setRepulsion(Repulsion repulsion) {
+        this.repulsion = repulsion;
+    }
+
+    public Repulsion getRepulsion() {
+        return repulsion;
+    }
+
+    public void setTheta(double theta) {
+        this.theta = Math.max(0.0, theta);
+    }
+
+    public double getTheta() {
+        return theta;
+    }
+
+    public int getIteration() {
+        return iteration;
+    }
+
+    public boolean isFinished() {
+        return iteration >= ITERATIONS;
+    }
+
+    public void run() {
+        while (!isFinished()) {
+            step();
+        }
+        normalize();
+    }
+
+    /**
+     * Eine Iteration: Repulsion, Attraction, Integration und Collision resolve.
+     */
+    public void step() {
+        if (n == 0 || isFinished()) return;
+
+        Arrays.fill(fx, 0.0);
+        Arrays.fill(fy, 0.0);
+
+        for (int i = 0; i < n; i++) {
+            cx[i] = x[i] + w[i] / 2.0;
+            cy[i] = y[i] + h[i] / 2.0;
+        }
+
+        if (repulsion == Repulsion.EXACT) {
+            repulseExact();
+        } else {
+            repulseBarnesHut();
+        }
+
+        attract();
+        integrate();
+
+        // ein paar Durchläufe pro Iteration reichen
+        for (int pass = 0; pass < 2; pass++) {
+            boolean any = repulsion == Repulsion.EXACT ? resolveCollisionsExact() : resolveCollisionsGrid();
+            if (!any) break;
+        }
+
+        temperature *= COOLING;
+        iteration++;
+    }
+
+    /**
+     * Schiebt alles in positive Koordinaten.
+     */
+    public void normalize() {
+        double minX = Double.POSITIVE_INFINITY;
+        double minY = Double.POSITIVE_INFINITY;
+        for (int i = 0; i < n; i++) {
+            minX = Math.min(minX, x[i]);
+            minY = Math.min(minY, y[i]);
+        }
+        if (minX < 0 || minY < 0) {
+            double shiftX = (minX < 0) ? (-minX + PADDING) : 0;
+            double shiftY = (minY < 0) ? (-minY + PADDING) : 0;
+            for (int i = 0; i < n; i++) {
+                x[i] += shiftX;
+                y[i] += shiftY;
+            }
+        }
+    }
+
+    public Node[] getNodes() {
+        return nodes;
+    }
+
+    /**
+     * Kopie der aktuellen Positionen als [x0, y0, x1, y1, ...], passend zu {@link #getNodes()}.
+     */
+    public double[] getPositions() {
+        double[] positions = new double[n * 2];
+        for (int i = 0; i < n; i++) {
+            positions[i * 2] = x[i];
+            positions[i * 2 + 1] = y[i];
+        }
+        return positions;
+    }
+
+    public void applyTo() {
+        applyPositions(nodes, getPositions());
+    }
+
+    public static double[] positionsOf(Node[] nodes) {
+        double[] positions = new double[nodes.length * 2];
+        for (int i = 0; i < nodes.length; i++) {
+            positions[i * 2] = nodes[i].getPosition().getX();
+            positions[i * 2 + 1] = nodes[i].getPosition().getY();
+        }
+        return positions;
+    }
+
+    public static void applyPositions(Node[] nodes, double[] positions) {
+        for (int i = 0; i < nodes.length; i++) {
+            nodes[i].setLocation(positions[i * 2], positions[i * 2 + 1]);
+        }
+    }
+
+    // --- Initial: falls alle auf (0,0) kleben, grob in Grid verteilen ---
+    private void spreadIfStacked() {
+        if (n == 0) return;
+        for (int i = 1; i < n; i++) {
+            if (x[i] != x[0] || y[i] != y[0]) return;
+        }
+        int cols = (int) Math.ceil(Math.sqrt(n));
+        for (int i = 0; i < n; i++) {
+            int c = i % cols;
+            int r = i / cols;
+            x[i] = c * (w[i] + 120.0);
+            y[i] = r * (h[i] + 120.0);
+        }
+    }
+
+    // --- Repulsion (O(n^2)) ---
+    private void repulseExact() {
+        for (int i = 0; i < n; i++) {
+            for (int j = i + 1; j < n; j++) {
+                double dx = cx[i] - cx[j];
+                double dy = cy[i] - cy[j];
+
+                // kleine jitter, damit 0-dist nicht explodiert
+                if (dx == 0 && dy == 0) { dx = 0.001; dy = 0.001; }
+
+                double dist2 = dx * dx + dy * dy;
+                double dist = Math.sqrt(dist2);
+
+                double f = REPULSION_STRENGTH / (dist2 + 1.0);
+
+                double ux = dx / dist;
+                double uy = dy / dist;
+
+                fx[i] += ux * f;
+                fy[i] += uy * f;
+                fx[j] -= ux * f;
+                fy[j] -= uy * f;
+            }
+        }
+    }
+
+    // --- Repulsion (O(n log n)) ---
+    private void repulseBarnesHut() {
+        tree.build(cx, cy, n);
+        for (int i = 0; i < n; i++) {
+            tree.accumulateRepulsion(i, theta, REPULSION_STRENGTH, force);
+            fx[i] += force[0];
+            fy[i] += force[1];
+        }
+    }
+
+    // --- Attraction entlang Connections ---
+    private void attract() {
+        for (int e = 0; e < edgeFrom.length; e++) {
+            int a = edgeFrom[e];
+            int b = edgeTo[e];
+
+            double dx = (x[b] + w[b] / 2.0) - (x[a] + w[a] / 2.0);
+            double dy = (y[b] + h[b] / 2.0) - (y[a] + h[a] / 2.0);
+
+            double dist = Math.sqrt(dx * dx + dy * dy);
+            if (dist < 0.001) dist = 0.001;
+
+            double ux = dx / dist;
+            double uy = dy / dist;
+
+            // "Spring": zieht zusammen wenn zu weit, drückt leicht auseinander wenn zu nahe
+            double f = ATTRACTION_STRENGTH * (dist - IDEAL_EDGE_LENGTH);
+
+            fx[a] += ux * f;
+            fy[a] += uy * f;
+            fx[b] -= ux * f;
+            fy[b] -= uy * f;
+        }
+    }
+
+    // --- Integrate (Velocity + Damping + clamp step) ---
+    private void integrate() {
+        for (int i = 0; i < n; i++) {
+            vx[i] = (vx[i] + fx[i]) * DAMPING * temperature;
+            vy[i] = (vy[i] + fy[i]) * DAMPING * temperature;
+
+            double step = Math.sqrt(vx[i] * vx[i] + vy[i] * vy[i]);
+            if (step > MAX_STEP) {
+                double s = MAX_STEP / step;
+                vx[i] *= s;
+                vy[i] *= s;
+            }
+
+            x[i] += vx[i];
+            y[i] += vy[i];
+        }
+    }
+
+    // --- Collision resolve (Rects + padding), alle Paare ---
+    private boolean resolveCollisionsExact() {
+        boolean any = false;
+        for (int i = 0; i < n; i++) {
+            for (int j = i + 1; j < n; j++) {
+                any |= separate(i, j);
+            }
+        }
+        return any;
+    }
+
+    // --- Collision resolve, nur Paare aus benachbarten Grid-Zellen ---
+    private boolean resolveCollisionsGrid() {
+        grid.build();
+        boolean any = false;
+        for (int i = 0; i < n; i++) {
+            int gx = grid.cellX[i];
+            int gy = grid.cellY[i];
+            for (int ox = -1; ox <= 1; ox++) {
+                for (int oy = -1; oy <= 1; oy++) {
+                    int bucket = grid.bucket(gx + ox, gy + oy);
+                    for (int j = grid.head[bucket]; j >= 0; j = grid.next[j]) {
+                        if (j <= i || grid.cellX[j] != gx + ox || grid.cellY[j] != gy + oy) continue;
+                        any |= separate(i, j);
+                    }
+                }
+            }
+        }
+        return any;
+    }
+
+    private boolean separate(int i, int j) {
+        // padding erweitern
+        boolean intersects = x[i] - PADDING < x[j] + w[j] + PADDING && x[i] + w[i] + PADDING > x[j] - PADDING
+                && y[i] - PADDING < y[j] + h[j] + PADDING && y[i] + h[i] + PADDING > y[j] - PADDING;
+        if (!intersects) return false;
+
+        // overlap in x/y bestimmen
+        double dx = (x[i] + w[i] / 2.0) - (x[j] + w[j] / 2.0);
+        double dy = (y[i] + h[i] / 2.0) - (y[j] + h[j] / 2.0);
+
+        if (dx == 0 && dy == 0) { dx = 0.001; dy = 0.001; }
+
+        double overlapX = (w[i] / 2.0 + w[j] / 2.0 + PADDING) - Math.abs(dx);
+        double overlapY = (h[i] / 2.0 + h[j] / 2.0 + PADDING) - Math.abs(dy);
+
+        // schiebe entlang der kleineren Achse auseinander (klassisch, sieht "geordnet" aus)
+        if (overlapX < overlapY) {
+            double sx = Math.signum(dx) * (overlapX / 2.0 + 0.5);
+            x[i] += sx;
+            x[j] -= sx;
+        } else {
+            double sy = Math.signum(dy) * (overlapY / 2.0 + 0.5);
+            y[i] += sy;
+            y[j] -= sy;
+        }
+        return true;
+    }
+
+    /**
+     * Spatial hash über die gepaddeten Node-Rechtecke. Die Zellgröße ist so groß wie das größte Rechteck,
+     * dadurch können sich nur Nodes aus derselben oder einer Nachbarzelle überlappen.
+     */
+    private final class CollisionGrid {
+        private final int[] cellX;
+        private final int[] cellY;
+        private final int[] next;
+        private final int[] head;
+        private final int mask;
+
+        private CollisionGrid(int count) {
+            this.cellX = new int[count];
+            this.cellY = new int[count];
+            this.next = new int[count];
+            int buckets = Integer.highestOneBit(Math.max(1, count * 2 - 1)) << 1;
+            this.head = new int[buckets];
+            this.mask = buckets - 1;
+        }
+
+        private void build() {
+            double cellW = 1.0;
+            double cellH = 1.0;
+            for (int i = 0; i < n; i++) {
+                cellW = Math.max(cellW, w[i] + PADDING * 2);
+                cellH = Math.max(cellH, h[i] + PADDING * 2);
+            }
+            Arrays.fill(head, -1);
+            for (int i = 0; i < n; i++) {
+                cellX[i] = (int) Math.floor((x[i] - PADDING) / cellW);
+                cellY[i] = (int) Math.floor((y[i] - PADDING) / cellH);
+                int bucket = bucket(cellX[i], cellY[i]);
+                next[i] = head[bucket];
+                head[bucket] = i;
+            }
+        }
+
+        private int bucket(int gx, int gy) {
+            return (gx * 73856093 ^ gy * 19349663) & mask;
+        }
+    }
+}
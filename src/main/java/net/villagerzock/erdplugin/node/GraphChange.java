@@ -0,0 +1,46 @@
+package net.villagerzock.erdplugin.node;
+
+/**
+ * Eine Änderung am {@link NodeGraph}, wird gesammelt und pro Transaktion als Batch an
+ * {@link NodeGraph.ChangeListener} geliefert. Gleiche Änderungen (z.B. mehrere Moves derselben Node) kommen nur einmal.
+ */
+public sealed interface GraphChange {
+    /**
+     * Die Änderung wird gespeichert (alles außer Größen, die werden beim Zeichnen gemessen).
+     */
+    default boolean isContentChange() {
+        return true;
+    }
+
+    record NodeAdded(Node node) implements GraphChange {
+    }
+
+    record NodeRemoved(Node node) implements GraphChange {
+    }
+
+    record NodeMoved(Node node) implements GraphChange {
+    }
+
+    record NodeResized(Node node) implements GraphChange {
+        @Override
+        public boolean isContentChange() {
+            return false;
+        }
+    }
+
+    /** Name und / oder Attribute der Node */
+    record AttributeChanged(Node node) implements GraphChange {
+    }
+
+    record ConnectionAdded(NodeGraph.Connection connection) implements GraphChange {
+    }
+
+    record ConnectionRemoved(NodeGraph.Connection connection) implements GraphChange {
+    }
+
+    /**
+     * Zu viel oder zu Unübersichtliches (Leeren, ...) um es einzeln zu melden, alles neu bestimmen.
+     */
+    record BulkChange() implements GraphChange {
+    }
+}
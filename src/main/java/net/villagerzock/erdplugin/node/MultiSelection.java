@@ -1,30 +1,32 @@
 package net.villagerzock.erdplugin.node;
 
-import java.util.ArrayList;
-import java.util.List;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
 
+/**
+ * Auswahl mehrerer Nodes / Connections. Identity-Sets, damit Hinzufügen und {@link #isSelected} auch bei
+ * tausenden ausgewählten Tabellen O(1) bleiben (wird beim Zeichnen für jede Node gefragt).
+ */
 public class MultiSelection implements INodeSelectable {
-    private final List<Node> nodes = new ArrayList<>();
-    private final List<NodeGraph.Connection> connections = new ArrayList<>();
+    private final Set<Node> nodes = Collections.newSetFromMap(new IdentityHashMap<>());
+    private final Set<NodeGraph.Connection> connections = Collections.newSetFromMap(new IdentityHashMap<>());
     @Override
     public boolean isSelected(INodeSelectable other) {
-        for (Node node : nodes){
-            if (other == node) return true;
+        if (other instanceof Node node){
+            return nodes.contains(node);
         }
-        for (NodeGraph.Connection connection : connections){
-            if (other == connection) return true;
+        if (other instanceof NodeGraph.Connection connection){
+            return connections.contains(connection);
         }
         return this == other;
     }
 
     @Override
     public void mergeInto(MultiSelection multiSelection) {
-        for (Node node : nodes){
-            multiSelection.addNode(node);
-        }
-        for (NodeGraph.Connection connection : connections){
-            multiSelection.addConnection(connection);
-        }
+        multiSelection.addNodes(nodes);
+        multiSelection.addConnections(connections);
     }
 
     @Override
@@ -35,14 +37,26 @@ public class MultiSelection implements INodeSelectable {
     }
 
     public void addNode(Node node){
-        if (!nodes.contains(node)){
-            nodes.add(node);
-        }
+        nodes.add(node);
     }
     public void addConnection(NodeGraph.Connection connection){
-        if (!connections.contains(connection)){
-            connections.add(connection);
-        }
+        connections.add(connection);
+    }
+
+    public void addNodes(Collection<? extends Node> nodes){
+        this.nodes.addAll(nodes);
+    }
+
+    public void addConnections(Collection<? extends NodeGraph.Connection> connections){
+        this.connections.addAll(connections);
+    }
+
+    public void removeNode(Node node){
+        nodes.remove(node);
+    }
+
+    public void removeConnection(NodeGraph.Connection connection){
+        connections.remove(connection);
     }
 
     public void reset() {
@@ -50,6 +64,14 @@ public class MultiSelection implements INodeSelectable {
         connections.clear();
     }
 
+    public Collection<Node> getNodes(){
+        return Collections.unmodifiableSet(nodes);
+    }
+
+    public Collection<NodeGraph.Connection> getConnections(){
+        return Collections.unmodifiableSet(connections);
+    }
+
     public boolean hasNode(Node node){
         return nodes.contains(node);
     }
@@ -5,7 +5,7 @@ import org.w3c.dom.Attr;
 
 import java.awt.geom.Point2D;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.atomic.AtomicReference;
@@ -16,18 +16,21 @@ public class Node implements INodeSelectable {
     private String name;
     private Map<String, Attribute> attributes;
     private Vector2 size;
-    private Runnable changed;
+    private NodeGraph graph;
+    private int contentVersion = 0;
+    private int id = 0;
 
-    public Node(Point2D position, String name, Map<String, Attribute> attributes, Vector2 size, Runnable changed) {
+    public Node(Point2D position, String name, Map<String, Attribute> attributes, Vector2 size) {
         this.position = position;
         this.name = name;
         this.attributes = attributes;
         this.size = size;
-        this.changed = changed;
     }
 
     public void addAttribute(Attribute attribute) {
+        Map<String, Attribute> oldAttributes = graph == null ? attributes : new LinkedHashMap<>(attributes);
         attributes.put(attribute.name(), attribute);
+        contentChanged(name, oldAttributes);
     }
 
     // getters/setters
@@ -37,7 +40,16 @@ public class Node implements INodeSelectable {
     }
 
     public void setPosition(Point2D position) {
+        Point2D old = this.position;
         this.position = position;
+        positionChanged(old.getX(), old.getY());
+    }
+
+    public void setLocation(double x, double y) {
+        double oldX = position.getX();
+        double oldY = position.getY();
+        position.setLocation(x, y);
+        positionChanged(oldX, oldY);
     }
 
     public String getName() {
@@ -45,7 +57,9 @@ public class Node implements INodeSelectable {
     }
 
     public void setName(String name) {
+        String oldName = this.name;
         this.name = name;
+        contentChanged(oldName, attributes);
     }
 
     public Map<String, Attribute> getAttributes() {
@@ -53,7 +67,30 @@ public class Node implements INodeSelectable {
     }
 
     public void setAttributes(Map<String, Attribute> attributes) {
+        Map<String, Attribute> oldAttributes = this.attributes;
         this.attributes = attributes;
+        contentChanged(name, oldAttributes);
+    }
+
+    /**
+     * Wird bei jeder Änderung von Name oder Attributen erhöht, damit gecachte Messungen wissen wann sie veraltet sind.
+     */
+    public int getContentVersion() {
+        return contentVersion;
+    }
+
+    /**
+     * Stabile Id innerhalb des Graphs, wird beim Hinzufügen vergeben (0 = noch keine) und so gespeichert.
+     */
+    public int getId() {
+        return id;
+    }
+
+    /**
+     * Nur zum Laden, ist die Id im Graph schon vergeben bekommt die Node beim Hinzufügen eine neue.
+     */
+    public void setId(int id) {
+        this.id = id;
     }
 
     public Vector2 getSize() {
@@ -61,15 +98,33 @@ public class Node implements INodeSelectable {
     }
 
     public void setSize(Vector2 size) {
+        if (size.equals(this.size)) return;
         this.size = size;
+        boundsChanged();
+    }
+
+    /**
+     * Graph in dem die Node gerade ist, {@code null} wenn sie (noch) in keinem ist.
+     */
+    public NodeGraph getGraph() {
+        return graph;
+    }
+
+    void setGraph(NodeGraph graph) {
+        this.graph = graph;
+    }
+
+    private void boundsChanged() {
+        if (graph != null) graph.nodeResized(this);
     }
 
-    public Runnable getChanged() {
-        return changed;
+    private void positionChanged(double oldX, double oldY) {
+        if (graph != null) graph.nodeMoved(this, oldX, oldY);
     }
 
-    public void setChanged(Runnable changed) {
-        this.changed = changed;
+    private void contentChanged(String oldName, Map<String, Attribute> oldAttributes) {
+        contentVersion++;
+        if (graph != null) graph.nodeContentChanged(this, oldName, oldAttributes);
     }
 
     public List<Attribute> getPrimaryKeys(){
@@ -89,14 +144,16 @@ public class Node implements INodeSelectable {
 
     @Override
     public void moveBy(double dx, double dy) {
-        getPosition().setLocation(getPosition().getX() + dx, getPosition().getY() + dy);
+        setLocation(getPosition().getX() + dx, getPosition().getY() + dy);
     }
 
     public Node deepCopy() {
         Point2D position = new Point2D.Double(getPosition().getX(),getPosition().getY());
         String name = getName();
-        Map<String, Attribute> attributeMap = new HashMap<>(attributes);
+        Map<String, Attribute> attributeMap = new LinkedHashMap<>(attributes);
         Vector2 size = new Vector2(getSize().x(),getSize().y());
-        return new Node(position,name,attributeMap,size,null);
+        Node copy = new Node(position,name,attributeMap,size);
+        copy.id = id;
+        return copy;
     }
 }
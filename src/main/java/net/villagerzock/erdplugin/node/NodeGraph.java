@@ -3,17 +3,30 @@ package net.villagerzock.erdplugin.node;
 import com.intellij.openapi.vfs.VirtualFile;
 import net.villagerzock.erdplugin.ui.ErdCanvas;
 
+import net.villagerzock.erdplugin.util.SpatialGrid;
+
 import java.awt.*;
+import java.awt.geom.Point2D;
 import java.awt.geom.Rectangle2D;
-import java.util.ArrayList;
+import java.util.*;
 import java.util.List;
-import java.util.Objects;
+import java.util.function.Consumer;
 
 public class NodeGraph {
     public NodeGraph(List<Connection> connections, List<Node> nodes, VirtualFile file) {
         this.connections = connections;
         this.nodes = nodes;
         this.file = file;
+        // erst die höchste geladene Id bestimmen, damit Nodes ohne Id keine Id aus der Datei wegnehmen
+        for (Node node : nodes){
+            nextId = Math.max(nextId, node.getId() + 1);
+        }
+        for (int i = 0; i < nodes.size(); i++){
+            attach(nodes.get(i), i);
+        }
+        for (Connection connection : connections){
+            indexConnection(connection);
+        }
     }
     public NodeGraph(VirtualFile file) {
         this.file = file;
@@ -22,17 +35,34 @@ public class NodeGraph {
     }
 
     public boolean isForeignKey(Node node, String name) {
-        for (Connection connection : connections){
-            if ((connection.from == node && Objects.equals(connection.fromAttr, name)) || (connection.to == node && Objects.equals(connection.toAttr, name))){
-                return true;
-            }
-        }
-        return false;
+        Map<String, List<Connection>> byAttribute = connectionsByAttribute.get(node);
+        return byAttribute != null && byAttribute.containsKey(name);
     }
 
     public void deleteNode(Node selectedNode) {
-        connections.removeIf(connection -> connection.from == selectedNode || connection.to == selectedNode);
-        nodes.remove(selectedNode);
+        List<Connection> incident = connectionsByNode.get(selectedNode);
+        if (incident != null){
+            // alle anliegenden Connections in einem Durchlauf über die Liste entfernen, nicht einmal pro Connection
+            List<Connection> removed = List.copyOf(incident);
+            Set<Connection> removedSet = Collections.newSetFromMap(new IdentityHashMap<>(removed.size() * 2));
+            removedSet.addAll(removed);
+            connections.removeIf(removedSet::contains);
+            for (Connection connection : removed){
+                // Selbstreferenzen stehen zweimal in incident
+                if (removedSet.remove(connection)) connectionDeleted(connection);
+            }
+        }
+        Integer index = indices.get(selectedNode);
+        if (index == null) return;
+        nodes.remove((int) index);
+        detach(selectedNode);
+        for (int i = index; i < nodes.size(); i++){
+            indices.put(nodes.get(i), i);
+        }
+        for (EditListener listener : editListeners){
+            listener.nodeRemoved(selectedNode, index);
+        }
+        post(new GraphChange.NodeRemoved(selectedNode));
     }
 
     public void delete(INodeSelectable selectable){
@@ -44,7 +74,25 @@ public class NodeGraph {
     }
 
     private void deleteConnection(Connection connection) {
-        connections.remove(connection);
+        // per Identität, gleiche (equals) Connections können mehrfach vorkommen
+        int index = -1;
+        for (int i = 0; i < connections.size(); i++){
+            if (connections.get(i) == connection){
+                index = i;
+                break;
+            }
+        }
+        if (index < 0) return;
+        connections.remove(index);
+        connectionDeleted(connection);
+    }
+
+    private void connectionDeleted(Connection connection) {
+        unindexConnection(connection);
+        for (EditListener listener : editListeners){
+            listener.connectionRemoved(connection);
+        }
+        post(new GraphChange.ConnectionRemoved(connection));
     }
 
     public VirtualFile getFile() {
@@ -126,273 +174,464 @@ public class NodeGraph {
     private final List<Connection> connections;
 
     private final List<Node> nodes;
+
+    // Spatial index für Culling / Hit-Testing, wird über Node.setLocation / setSize aktuell gehalten
+    private static final double INDEX_CELL_SIZE = 512.0;
+    // größere Transaktionen werden als BulkChange gemeldet
+    private static final int MAX_BATCH = 4096;
+    private static final double CONNECTION_MARGIN = 20.0; // wie MARGIN beim Routing
+    private final SpatialGrid<Node> nodeIndex = new SpatialGrid<>(INDEX_CELL_SIZE);
+    private final SpatialGrid<Connection> connectionIndex = new SpatialGrid<>(INDEX_CELL_SIZE);
+    private final Map<Node, List<Connection>> connectionsByNode = new IdentityHashMap<>();
+    // Adjazenz nach Richtung und nach (Node, Attribut), leere Listen werden entfernt
+    private final Map<Node, List<Connection>> outgoing = new IdentityHashMap<>();
+    private final Map<Node, List<Connection>> incoming = new IdentityHashMap<>();
+    private final Map<Node, Map<String, List<Connection>>> connectionsByAttribute = new IdentityHashMap<>();
+    // Position in nodes und Id -> Node, damit Connections ohne Suche aufgelöst werden können
+    private final Map<Node, Integer> indices = new IdentityHashMap<>();
+    private final Map<Integer, Node> nodesById = new HashMap<>();
+    private int nextId = 1;
+    private final Set<Node> unmeasured = Collections.newSetFromMap(new IdentityHashMap<>());
+    private final List<ConnectionGeometryListener> geometryListeners = new ArrayList<>();
+    private final List<EditListener> editListeners = new ArrayList<>();
+    private final List<ChangeListener> changeListeners = new ArrayList<>();
+    // gesammelte Änderungen der laufenden Transaktion, Updates (Move / Resize / Attribute) je Node nur einmal
+    private final List<GraphChange> pendingChanges = new ArrayList<>();
+    private final Set<GraphChange> pendingUpdates = new HashSet<>();
+    private int batchDepth = 0;
+    private long modificationCount = 0;
     private final VirtualFile file;
-    private Runnable changed;
 
-    public void setChanged(Runnable changed) {
-        this.changed = changed;
+    /**
+     * Wird informiert wenn sich die geroutete Geometrie einer Connection ändern könnte
+     * (Connection neu, Endpunkt verschoben / Größe geändert, Attribute geändert) oder sie entfernt wurde.
+     */
+    public interface ConnectionGeometryListener {
+        void geometryChanged(Connection connection);
+        void connectionRemoved(Connection connection);
     }
 
-    public Runnable getChanged() {
-        return changed;
+    /**
+     * Wird über jede Änderung am Inhalt des Diagramms informiert, also alles was gespeichert wird (Größen zählen nicht dazu).
+     * Indizes beziehen sich auf {@link #nodes()} zum Zeitpunkt der Änderung.
+     */
+    public interface EditListener {
+        void nodeAdded(Node node);
+        /** nach dem Entfernen, {@code index} ist der Index den die Node vorher hatte */
+        void nodeRemoved(Node node, int index);
+        /** {@code oldX} / {@code oldY}: Position vor dieser Änderung */
+        void nodeMoved(Node node, double oldX, double oldY);
+        /** {@code oldAttributes} nur während des Aufrufs gültig, wer sie behalten will muss sie kopieren */
+        void nodeContentChanged(Node node, String oldName, Map<String, Attribute> oldAttributes);
+        void connectionAdded(Connection connection);
+        /** nach dem Entfernen, die Endpunkte sind noch im Graph */
+        void connectionRemoved(Connection connection);
     }
 
-    public List<Node> nodes(){
-        return nodes;
+    /**
+     * Bekommt alle Änderungen einer Transaktion ({@link #beginBatch()} bis {@link #endBatch()}) auf einmal,
+     * außerhalb einer Transaktion jede Änderung sofort als eigenen Batch.
+     */
+    public interface ChangeListener {
+        void graphChanged(List<GraphChange> changes);
     }
-    public List<Connection> connections(){
-        return connections;
+
+    /**
+     * Wird bei jeder sichtbaren Änderung (Node / Connection hinzugefügt, entfernt, verschoben, Attribute geändert) erhöht,
+     * damit gecachte Bilder wissen wann sie veraltet sind.
+     */
+    public long getModificationCount() {
+        return modificationCount;
     }
 
-    public void addConnection(Connection connection){
-        connections.add(connection);
+    public void addConnectionGeometryListener(ConnectionGeometryListener listener) {
+        geometryListeners.add(listener);
     }
 
-    public int getIndexOf(Node node){
-        return nodes.indexOf(node);
+    public void removeConnectionGeometryListener(ConnectionGeometryListener listener) {
+        geometryListeners.remove(listener);
     }
 
+    public void addEditListener(EditListener listener) {
+        editListeners.add(listener);
+    }
 
-    // FOR REFORMATING
+    public void removeEditListener(EditListener listener) {
+        editListeners.remove(listener);
+    }
 
-    public void repositionNodesForConnections() {
-        if (nodes.isEmpty()) return;
+    public void addChangeListener(ChangeListener listener) {
+        changeListeners.add(listener);
+    }
+
+    public void removeChangeListener(ChangeListener listener) {
+        changeListeners.remove(listener);
+    }
+
+    /**
+     * Änderungen bis zum passenden {@link #endBatch()} werden gesammelt und als ein Batch gemeldet. Verschachtelbar.
+     */
+    public void beginBatch() {
+        batchDepth++;
+    }
+
+    public void endBatch() {
+        if (batchDepth == 0) return;
+        batchDepth--;
+        if (batchDepth == 0) flushChanges();
+    }
 
-        // --- Tuning ---
-        final int iterations = 220;
-        final double padding = 24.0;          // Mindestabstand zwischen Nodes
-        final double idealEdgeLength = 260.0; // Ziel-Länge einer Connection
-        final double repulsionStrength = 85000.0;
-        final double attractionStrength = 0.012; // je kleiner, desto "weicher"
-        final double damping = 0.85;          // Bewegung dämpfen (0..1)
-        final double maxStep = 45.0;          // max. Bewegung pro Iteration
-        final double cooling = 0.985;         // "Temperatur" sinkt pro Iteration
-
-        // Fallback size für Nodes die noch nicht gerendert wurden (size == 0,0)
-        final int fallbackW = 220;
-        final int fallbackH = 140;
-
-        // --- Helper: Node size (mit fallback) ---
-        java.util.function.IntFunction<java.awt.geom.Rectangle2D.Double> rectOf = (idx) -> {
-            Node n = nodes.get(idx);
-            var p = n.getPosition();
-            var s = n.getSize();
-            double w = (s.x() <= 0 ? fallbackW : s.x());
-            double h = (s.y() <= 0 ? fallbackH : s.y());
-            return new java.awt.geom.Rectangle2D.Double(
-                    p.getX(), p.getY(),
-                    w, h
-            );
-        };
-
-        // --- Initial: falls alle auf (0,0) kleben, grob in Grid verteilen ---
-        boolean allSame = true;
-        double x0 = nodes.get(0).getPosition().getX();
-        double y0 = nodes.get(0).getPosition().getY();
-        for (int i = 1; i < nodes.size(); i++) {
-            var p = nodes.get(i).getPosition();
-            if (p.getX() != x0 || p.getY() != y0) { allSame = false; break; }
-        }
-        if (allSame) {
-            int cols = (int) Math.ceil(Math.sqrt(nodes.size()));
-            double gx = 0, gy = 0;
-            for (int i = 0; i < nodes.size(); i++) {
-                int c = i % cols;
-                int r = i / cols;
-                var n = nodes.get(i);
-                var s = n.getSize();
-                double w = (s.x() <= 0 ? fallbackW : s.x());
-                double h = (s.y() <= 0 ? fallbackH : s.y());
-                n.getPosition().setLocation(gx + c * (w + 120.0), gy + r * (h + 120.0));
+    public void batch(Runnable runnable) {
+        beginBatch();
+        try {
+            runnable.run();
+        } finally {
+            endBatch();
+        }
+    }
+
+    private void post(GraphChange change) {
+        if (changeListeners.isEmpty()) return;
+        boolean bulk = !pendingChanges.isEmpty() && pendingChanges.getFirst() instanceof GraphChange.BulkChange;
+        if (!bulk){
+            if (change instanceof GraphChange.BulkChange || pendingChanges.size() >= MAX_BATCH){
+                pendingChanges.clear();
+                pendingUpdates.clear();
+                pendingChanges.add(new GraphChange.BulkChange());
+            }else if (!isUpdate(change) || pendingUpdates.add(change)){
+                pendingChanges.add(change);
             }
         }
+        if (batchDepth == 0) flushChanges();
+    }
 
-        // Velocity arrays
-        double[] vx = new double[nodes.size()];
-        double[] vy = new double[nodes.size()];
+    private static boolean isUpdate(GraphChange change) {
+        return change instanceof GraphChange.NodeMoved
+                || change instanceof GraphChange.NodeResized
+                || change instanceof GraphChange.AttributeChanged;
+    }
+
+    private void flushChanges() {
+        if (pendingChanges.isEmpty()) return;
+        List<GraphChange> changes = List.copyOf(pendingChanges);
+        pendingChanges.clear();
+        pendingUpdates.clear();
+        for (ChangeListener listener : List.copyOf(changeListeners)){
+            listener.graphChanged(changes);
+        }
+    }
 
-        double temperature = 1.0;
+    public List<Node> nodes(){
+        return nodes;
+    }
+    public List<Connection> connections(){
+        return connections;
+    }
 
-        for (int it = 0; it < iterations; it++) {
-            double[] fx = new double[nodes.size()];
-            double[] fy = new double[nodes.size()];
+    public void addNode(Node node){
+        insertNode(nodes.size(), node);
+    }
 
-            // --- Repulsion (O(n^2)) ---
-            for (int i = 0; i < nodes.size(); i++) {
-                var pi = nodes.get(i).getPosition();
-                var si = nodes.get(i).getSize();
-                double wi = (si.x() <= 0 ? fallbackW : si.x());
-                double hi = (si.y() <= 0 ? fallbackH : si.y());
-                double cix = pi.getX() + wi / 2.0;
-                double ciy = pi.getY() + hi / 2.0;
+    /**
+     * Fügt {@code node} an Position {@code index} ein (geclampt), z.B. um eine gelöschte Node wieder an ihren Platz zu setzen.
+     */
+    public void insertNode(int index, Node node){
+        index = Math.max(0, Math.min(index, nodes.size()));
+        nodes.add(index, node);
+        attach(node, index);
+        for (int i = index + 1; i < nodes.size(); i++){
+            indices.put(nodes.get(i), i);
+        }
+        for (EditListener listener : editListeners){
+            listener.nodeAdded(node);
+        }
+        post(new GraphChange.NodeAdded(node));
+    }
 
-                for (int j = i + 1; j < nodes.size(); j++) {
-                    var pj = nodes.get(j).getPosition();
-                    var sj = nodes.get(j).getSize();
-                    double wj = (sj.x() <= 0 ? fallbackW : sj.x());
-                    double hj = (sj.y() <= 0 ? fallbackH : sj.y());
-                    double cjx = pj.getX() + wj / 2.0;
-                    double cjy = pj.getY() + hj / 2.0;
+    public void addConnection(Connection connection){
+        connections.add(connection);
+        indexConnection(connection);
+        for (EditListener listener : editListeners){
+            listener.connectionAdded(connection);
+        }
+        post(new GraphChange.ConnectionAdded(connection));
+    }
 
-                    double dx = cix - cjx;
-                    double dy = ciy - cjy;
+    /**
+     * Alle Nodes deren Bounds {@code area} schneiden, in Zeichen-Reihenfolge.
+     */
+    public List<Node> nodesIn(Rectangle2D area){
+        return nodeIndex.query(area);
+    }
 
-                    // kleine jitter, damit 0-dist nicht explodiert
-                    if (dx == 0 && dy == 0) { dx = 0.001; dy = 0.001; }
+    /**
+     * Wie {@link #nodesIn(Rectangle2D)}, füllt aber {@code out} statt eine neue Liste anzulegen (fürs Zeichnen).
+     */
+    public void nodesIn(Rectangle2D area, List<Node> out){
+        nodeIndex.query(area, out);
+    }
 
-                    double dist2 = dx * dx + dy * dy;
-                    double dist = Math.sqrt(dist2);
+    /**
+     * Wie {@link #nodesIn}, aber ohne Liste und ohne Sortierung.
+     */
+    public void forEachNodeIn(double minX, double minY, double maxX, double maxY, Consumer<? super Node> visitor){
+        nodeIndex.forEach(minX, minY, maxX, maxY, visitor);
+    }
 
-                    // Repulsion Kraft
-                    double f = repulsionStrength / (dist2 + 1.0);
+    /**
+     * Alle Connections deren Route {@code area} schneiden könnte.
+     */
+    public List<Connection> connectionsIn(Rectangle2D area){
+        return connectionIndex.query(area);
+    }
 
-                    double ux = dx / dist;
-                    double uy = dy / dist;
+    /**
+     * Wie {@link #connectionsIn(Rectangle2D)}, füllt aber {@code out} statt eine neue Liste anzulegen (fürs Zeichnen).
+     */
+    public void connectionsIn(Rectangle2D area, List<Connection> out){
+        connectionIndex.query(area, out);
+    }
 
-                    fx[i] += ux * f;
-                    fy[i] += uy * f;
-                    fx[j] -= ux * f;
-                    fy[j] -= uy * f;
-                }
+    /**
+     * Oberste Node unter {@code point} oder null.
+     */
+    public Node nodeAt(Point2D point){
+        List<Node> hits = nodeIndex.query(new Rectangle2D.Double(point.getX(), point.getY(), 0, 0));
+        for (int i = hits.size() - 1; i >= 0; i--){
+            Node node = hits.get(i);
+            if (
+                    point.getX() >= node.getPosition().getX()
+                    && point.getY() >= node.getPosition().getY()
+                    && point.getX() <= node.getPosition().getX() + node.getSize().x()
+                    && point.getY() <= node.getPosition().getY() + node.getSize().y()
+            ){
+                return node;
             }
+        }
+        return null;
+    }
 
-            // --- Attraction entlang Connections ---
-            for (Connection c : connections) {
-                Node a = c.from();
-                Node b = c.to();
-
-                var pa = a.getPosition();
-                var pb = b.getPosition();
+    /**
+     * Alle Connections die an {@code node} hängen.
+     */
+    public List<Connection> connectionsOf(Node node){
+        List<Connection> incident = connectionsByNode.get(node);
+        return incident == null ? List.of() : Collections.unmodifiableList(incident);
+    }
 
-                var sa = a.getSize();
-                var sb = b.getSize();
+    /**
+     * Connections die bei {@code node} starten.
+     */
+    public List<Connection> connectionsFrom(Node node){
+        List<Connection> list = outgoing.get(node);
+        return list == null ? List.of() : Collections.unmodifiableList(list);
+    }
 
-                double wa = (sa.x() <= 0 ? fallbackW : sa.x());
-                double ha = (sa.y() <= 0 ? fallbackH : sa.y());
-                double wb = (sb.x() <= 0 ? fallbackW : sb.x());
-                double hb = (sb.y() <= 0 ? fallbackH : sb.y());
+    /**
+     * Connections die bei {@code node} enden.
+     */
+    public List<Connection> connectionsTo(Node node){
+        List<Connection> list = incoming.get(node);
+        return list == null ? List.of() : Collections.unmodifiableList(list);
+    }
 
-                double ax = pa.getX() + wa / 2.0;
-                double ay = pa.getY() + ha / 2.0;
-                double bx = pb.getX() + wb / 2.0;
-                double by = pb.getY() + hb / 2.0;
+    /**
+     * Connections die an Attribut {@code attribute} von {@code node} hängen (egal in welche Richtung).
+     */
+    public List<Connection> connectionsOf(Node node, String attribute){
+        Map<String, List<Connection>> byAttribute = connectionsByAttribute.get(node);
+        List<Connection> list = byAttribute == null ? null : byAttribute.get(attribute);
+        return list == null ? List.of() : Collections.unmodifiableList(list);
+    }
 
-                double dx = bx - ax;
-                double dy = by - ay;
+    /**
+     * Nodes die noch nie gemessen wurden (size == 0), die müssen vor dem Culling einmal gemessen werden.
+     */
+    public Collection<Node> unmeasuredNodes(){
+        return unmeasured;
+    }
 
-                double dist = Math.sqrt(dx * dx + dy * dy);
-                if (dist < 0.001) dist = 0.001;
+    private void nodeBoundsChanged(Node node){
+        modificationCount++;
+        indexNode(node);
+        List<Connection> incident = connectionsByNode.get(node);
+        if (incident != null){
+            for (Connection connection : incident){
+                indexConnection(connection);
+            }
+        }
+    }
 
-                double ux = dx / dist;
-                double uy = dy / dist;
+    void nodeResized(Node node){
+        nodeBoundsChanged(node);
+        post(new GraphChange.NodeResized(node));
+    }
 
-                // "Spring": zieht zusammen wenn zu weit, drückt leicht auseinander wenn zu nahe
-                double stretch = dist - idealEdgeLength;
-                double f = attractionStrength * stretch;
+    void nodeMoved(Node node, double oldX, double oldY){
+        nodeBoundsChanged(node);
+        for (EditListener listener : editListeners){
+            listener.nodeMoved(node, oldX, oldY);
+        }
+        post(new GraphChange.NodeMoved(node));
+    }
 
-                fx[getIndexOf(a)] += ux * f;
-                fy[getIndexOf(a)] += uy * f;
-                fx[getIndexOf(b)] -= ux * f;
-                fy[getIndexOf(b)] -= uy * f;
+    void nodeContentChanged(Node node, String oldName, Map<String, Attribute> oldAttributes){
+        modificationCount++;
+        List<Connection> incident = connectionsByNode.get(node);
+        if (incident != null){
+            for (Connection connection : incident){
+                fireGeometryChanged(connection);
             }
+        }
+        for (EditListener listener : editListeners){
+            listener.nodeContentChanged(node, oldName, oldAttributes);
+        }
+        post(new GraphChange.AttributeChanged(node));
+    }
 
-            // --- Integrate (Velocity + Damping + clamp step) ---
-            for (int i = 0; i < nodes.size(); i++) {
-                vx[i] = (vx[i] + fx[i]) * damping;
-                vy[i] = (vy[i] + fy[i]) * damping;
-
-                // Temperatur / Cooling
-                vx[i] *= temperature;
-                vy[i] *= temperature;
-
-                // clamp step
-                double step = Math.sqrt(vx[i] * vx[i] + vy[i] * vy[i]);
-                if (step > maxStep) {
-                    double s = maxStep / step;
-                    vx[i] *= s;
-                    vy[i] *= s;
-                }
-
-                var p = nodes.get(i).getPosition();
-                p.setLocation(p.getX() + vx[i], p.getY() + vy[i]);
-            }
+    private void fireGeometryChanged(Connection connection){
+        for (ConnectionGeometryListener listener : geometryListeners){
+            listener.geometryChanged(connection);
+        }
+    }
 
-            // --- Collision resolve (Rects + padding) ---
-            // ein paar Durchläufe pro Iteration reichen
-            for (int pass = 0; pass < 2; pass++) {
-                boolean any = false;
+    private void fireConnectionRemoved(Connection connection){
+        for (ConnectionGeometryListener listener : geometryListeners){
+            listener.connectionRemoved(connection);
+        }
+    }
 
-                for (int i = 0; i < nodes.size(); i++) {
-                    for (int j = i + 1; j < nodes.size(); j++) {
-                        var ri = rectOf.apply(i);
-                        var rj = rectOf.apply(j);
+    private void attach(Node node, int index){
+        modificationCount++;
+        int id = node.getId();
+        if (id <= 0 || nodesById.containsKey(id)){
+            id = nextId;
+            node.setId(id);
+        }
+        nextId = Math.max(nextId, id + 1);
+        nodesById.put(id, node);
+        indices.put(node, index);
+        node.setGraph(this);
+        indexNode(node);
+    }
 
-                        // padding erweitern
-                        java.awt.geom.Rectangle2D.Double ei = new java.awt.geom.Rectangle2D.Double(
-                                ri.x - padding, ri.y - padding, ri.width + padding * 2, ri.height + padding * 2
-                        );
-                        java.awt.geom.Rectangle2D.Double ej = new java.awt.geom.Rectangle2D.Double(
-                                rj.x - padding, rj.y - padding, rj.width + padding * 2, rj.height + padding * 2
-                        );
+    private void detach(Node node){
+        modificationCount++;
+        nodesById.remove(node.getId());
+        indices.remove(node);
+        node.setGraph(null);
+        nodeIndex.remove(node);
+        unmeasured.remove(node);
+        connectionsByNode.remove(node);
+        outgoing.remove(node);
+        incoming.remove(node);
+        connectionsByAttribute.remove(node);
+    }
 
-                        if (!ei.intersects(ej)) continue;
+    private void indexNode(Node node){
+        Point2D p = node.getPosition();
+        nodeIndex.update(node, p.getX(), p.getY(), node.getSize().x(), node.getSize().y());
+        if (node.getSize().x() == 0){
+            unmeasured.add(node);
+        }else {
+            unmeasured.remove(node);
+        }
+    }
 
-                        any = true;
+    private void indexConnection(Connection connection){
+        modificationCount++;
+        if (!connectionIndex.contains(connection)){
+            connectionsByNode.computeIfAbsent(connection.from, n -> new ArrayList<>()).add(connection);
+            if (connection.to != connection.from){
+                connectionsByNode.computeIfAbsent(connection.to, n -> new ArrayList<>()).add(connection);
+            }
+            outgoing.computeIfAbsent(connection.from, n -> new ArrayList<>()).add(connection);
+            incoming.computeIfAbsent(connection.to, n -> new ArrayList<>()).add(connection);
+            addByAttribute(connection.from, connection.fromAttr, connection);
+            addByAttribute(connection.to, connection.toAttr, connection);
+        }
+        Point2D a = connection.from.getPosition();
+        Point2D b = connection.to.getPosition();
+        double minX = Math.min(a.getX(), b.getX()) - CONNECTION_MARGIN;
+        double minY = Math.min(a.getY(), b.getY()) - CONNECTION_MARGIN;
+        double maxX = Math.max(a.getX() + connection.from.getSize().x(), b.getX() + connection.to.getSize().x()) + CONNECTION_MARGIN;
+        double maxY = Math.max(a.getY() + connection.from.getSize().y(), b.getY() + connection.to.getSize().y()) + CONNECTION_MARGIN;
+        connectionIndex.update(connection, minX, minY, maxX - minX, maxY - minY);
+        fireGeometryChanged(connection);
+    }
 
-                        // overlap in x/y bestimmen
-                        double ixCenterX = ri.getCenterX();
-                        double ixCenterY = ri.getCenterY();
-                        double jxCenterX = rj.getCenterX();
-                        double jxCenterY = rj.getCenterY();
+    private void unindexConnection(Connection connection){
+        modificationCount++;
+        connectionIndex.remove(connection);
+        removeFrom(connectionsByNode, connection.from, connection);
+        removeFrom(connectionsByNode, connection.to, connection);
+        removeFrom(outgoing, connection.from, connection);
+        removeFrom(incoming, connection.to, connection);
+        removeByAttribute(connection.from, connection.fromAttr, connection);
+        removeByAttribute(connection.to, connection.toAttr, connection);
+        fireConnectionRemoved(connection);
+    }
 
-                        double dx = ixCenterX - jxCenterX;
-                        double dy = ixCenterY - jxCenterY;
+    private void addByAttribute(Node node, String attribute, Connection connection){
+        connectionsByAttribute.computeIfAbsent(node, n -> new HashMap<>())
+                .computeIfAbsent(attribute, a -> new ArrayList<>())
+                .add(connection);
+    }
 
-                        if (dx == 0 && dy == 0) { dx = 0.001; dy = 0.001; }
+    private void removeByAttribute(Node node, String attribute, Connection connection){
+        Map<String, List<Connection>> byAttribute = connectionsByAttribute.get(node);
+        if (byAttribute == null) return;
+        removeFrom(byAttribute, attribute, connection);
+        if (byAttribute.isEmpty()){
+            connectionsByAttribute.remove(node);
+        }
+    }
 
-                        double overlapX = (ri.width / 2.0 + rj.width / 2.0 + padding) - Math.abs(dx);
-                        double overlapY = (ri.height / 2.0 + rj.height / 2.0 + padding) - Math.abs(dy);
+    private static <K> void removeFrom(Map<K, List<Connection>> map, K key, Connection connection){
+        List<Connection> list = map.get(key);
+        if (list == null) return;
+        list.removeIf(c -> c == connection);
+        if (list.isEmpty()){
+            map.remove(key);
+        }
+    }
 
-                        // schiebe entlang der kleineren Achse auseinander (klassisch, sieht "geordnet" aus)
-                        if (overlapX < overlapY) {
-                            double push = overlapX / 2.0 + 0.5;
-                            double sx = Math.signum(dx) * push;
+    /**
+     * Position von {@code node} in {@link #nodes()} oder -1.
+     */
+    public int getIndexOf(Node node){
+        Integer index = indices.get(node);
+        return index == null ? -1 : index;
+    }
 
-                            nodes.get(i).getPosition().setLocation(nodes.get(i).getPosition().getX() + sx, nodes.get(i).getPosition().getY());
-                            nodes.get(j).getPosition().setLocation(nodes.get(j).getPosition().getX() - sx, nodes.get(j).getPosition().getY());
-                        } else {
-                            double push = overlapY / 2.0 + 0.5;
-                            double sy = Math.signum(dy) * push;
+    /**
+     * Node mit der stabilen Id {@code id} oder null.
+     */
+    public Node getNode(int id){
+        return nodesById.get(id);
+    }
 
-                            nodes.get(i).getPosition().setLocation(nodes.get(i).getPosition().getX(), nodes.get(i).getPosition().getY() + sy);
-                            nodes.get(j).getPosition().setLocation(nodes.get(j).getPosition().getX(), nodes.get(j).getPosition().getY() - sy);
-                        }
-                    }
-                }
 
-                if (!any) break;
-            }
+    // FOR REFORMATING
 
-            temperature *= cooling;
-        }
+    public void repositionNodesForConnections() {
+        repositionNodesForConnections(ForceLayout.Repulsion.BARNES_HUT, ForceLayout.DEFAULT_THETA);
+    }
 
-        // --- Normalize: alles in positive Koordinaten schieben ---
-        double minX = Double.POSITIVE_INFINITY;
-        double minY = Double.POSITIVE_INFINITY;
-        for (int i = 0; i < nodes.size(); i++) {
-            var r = rectOf.apply(i);
-            minX = Math.min(minX, r.getMinX());
-            minY = Math.min(minY, r.getMinY());
-        }
-        if (minX < 0 || minY < 0) {
-            double shiftX = (minX < 0) ? (-minX + padding) : 0;
-            double shiftY = (minY < 0) ? (-minY + padding) : 0;
-            for (Node n : nodes) {
-                var p = n.getPosition();
-                p.setLocation(p.getX() + shiftX, p.getY() + shiftY);
-            }
-        }
+    /**
+     * @param repulsion EXACT rechnet alle Paare (zum Vergleichen), BARNES_HUT approximiert über einen Quadtree
+     * @param theta Genauigkeit für BARNES_HUT, 0 = exakt
+     */
+    public void repositionNodesForConnections(ForceLayout.Repulsion repulsion, double theta) {
+        if (nodes.isEmpty()) return;
 
-        if (changed != null) changed.run();
+        ForceLayout layout = new ForceLayout(this);
+        layout.setRepulsion(repulsion);
+        layout.setTheta(theta);
+        layout.run();
+        batch(() -> {
+            layout.applyTo();
+            post(new GraphChange.BulkChange());
+        });
     }
 }
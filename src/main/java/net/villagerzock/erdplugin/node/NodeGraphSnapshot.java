@@ -1,5 +1,13 @@
 package net.villagerzock.erdplugin.node;
 
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Vom Graph losgelöste Kopie aller Nodes und Connections, z.B. für Undo oder um im Hintergrund zu serialisieren.
+ */
 public class NodeGraphSnapshot {
     private final Node[] nodes;
     private final NodeGraph.Connection[] connections;
@@ -9,28 +17,40 @@ public class NodeGraphSnapshot {
         this.connections = connections;
     }
 
-    public void loadInto(NodeGraph graph){
-        graph.nodes().clear();
-        for (Node node : nodes){
-            graph.nodes().add(node);
-            node.setChanged(graph.getChanged());
-        }
+    public List<Node> nodes() {
+        return List.of(nodes);
+    }
 
-        for (NodeGraph.Connection connection : connections){
-            graph.connections().add(connection);
-        }
+    public List<NodeGraph.Connection> connections() {
+        return List.of(connections);
+    }
+
+    /**
+     * Eigenständiger Graph mit neuen Kopien aller Nodes und Connections, der Snapshot selbst bleibt unverändert.
+     * Z.B. damit mehrere Threads jeweils auf ihrem eigenen Graph messen und zeichnen können.
+     */
+    public NodeGraph toGraph(){
+        NodeGraphSnapshot copy = copy(nodes, connections);
+        return new NodeGraph(new ArrayList<>(List.of(copy.connections)), new ArrayList<>(List.of(copy.nodes)), null);
     }
 
     public static NodeGraphSnapshot of(NodeGraph nodeGraph){
-        Node[] nodes = nodeGraph.nodes().toArray(Node[]::new);
+        return copy(nodeGraph.nodes().toArray(Node[]::new), nodeGraph.connections().toArray(NodeGraph.Connection[]::new));
+    }
+
+    private static NodeGraphSnapshot copy(Node[] source, NodeGraph.Connection[] sourceConnections){
+        Node[] nodes = new Node[source.length];
+        Map<Node, Node> copies = new IdentityHashMap<>(nodes.length * 2);
         for (int i = 0; i < nodes.length; i++) {
-            nodes[i] = nodes[i].deepCopy();
+            Node copy = source[i].deepCopy();
+            copies.put(source[i], copy);
+            nodes[i] = copy;
         }
-        NodeGraph.Connection[] connections = nodeGraph.connections().toArray(NodeGraph.Connection[]::new);
+        NodeGraph.Connection[] connections = new NodeGraph.Connection[sourceConnections.length];
         for (int i = 0; i < connections.length; i++){
-            NodeGraph.Connection connection = connections[i];
-            Node from = nodes[nodeGraph.getIndexOf(connection.from())];
-            Node to = nodes[nodeGraph.getIndexOf(connection.to())];
+            NodeGraph.Connection connection = sourceConnections[i];
+            Node from = copies.get(connection.from());
+            Node to = copies.get(connection.to());
             String fromAttr = connection.fromAttr();
             String toAttr = connection.toAttr();
             NodeGraph.ConnectionType type = connection.type();
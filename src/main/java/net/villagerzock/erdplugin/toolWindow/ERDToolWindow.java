@@ -8,7 +8,9 @@ import com.intellij.ui.content.Content;
 import com.intellij.ui.content.ContentFactory;
 import j.G.O;
 import net.villagerzock.erdplugin.node.Attribute;
+import net.villagerzock.erdplugin.node.GraphChange;
 import net.villagerzock.erdplugin.node.Node;
+import net.villagerzock.erdplugin.node.NodeGraph;
 import net.villagerzock.erdplugin.ui.ErdCanvas;
 import net.villagerzock.erdplugin.ui.JTableWithToolbar;
 import org.jetbrains.annotations.NotNull;
@@ -24,22 +26,68 @@ public class ERDToolWindow implements ToolWindowFactory, DumbAware {
     public void createToolWindowContent(@NotNull Project project, @NotNull ToolWindow toolWindow) {
         Node n = ErdCanvas.getSelectedNode();
         Content content = ContentFactory.getInstance().createContent(null, null, false);
-        setContent(n, content);
+        NodeContent nodeContent = new NodeContent(content);
+        nodeContent.show(n);
         toolWindow.getContentManager().addContent(content);
         ErdCanvas.setSelectedNodeChanged((node)->{
             if (node instanceof Node sel){
-                setContent(sel, content);
+                nodeContent.show(sel);
             }else {
-                setContent(null, content);
+                nodeContent.show(null);
             }
         });
     }
 
-    private void setContent(Node n, Content content) {
-        if (n == null){
-            content.setComponent(buildEmptyUi());
-        }else {
-            content.setComponent(buildUi(n));
+    /**
+     * Zeigt die ausgewählte Node und baut die Tabelle nur neu wenn sich deren Attribute von woanders
+     * (Undo, Journal, ...) geändert haben oder sie gelöscht wurde. Moves usw. werden ignoriert.
+     */
+    private final class NodeContent implements NodeGraph.ChangeListener {
+        private final Content content;
+        private Node node = null;
+        private NodeGraph graph = null;
+        private boolean applying = false;
+
+        private NodeContent(Content content) {
+            this.content = content;
+        }
+
+        void show(Node n) {
+            if (graph != null) graph.removeChangeListener(this);
+            node = n;
+            graph = n == null ? null : n.getGraph();
+            if (graph != null) graph.addChangeListener(this);
+
+            if (n == null){
+                content.setComponent(buildEmptyUi());
+            }else {
+                content.setComponent(buildUi(n, this));
+            }
+        }
+
+        void apply(Map<String, Attribute> attributes) {
+            applying = true;
+            try {
+                node.setAttributes(attributes);
+            } finally {
+                applying = false;
+            }
+        }
+
+        @Override
+        public void graphChanged(List<GraphChange> changes) {
+            if (applying) return;
+            for (GraphChange change : changes){
+                if (change instanceof GraphChange.NodeRemoved removed && removed.node() == node){
+                    show(null);
+                    return;
+                }
+                if (change instanceof GraphChange.BulkChange
+                        || change instanceof GraphChange.AttributeChanged changed && changed.node() == node){
+                    show(node.getGraph() == null ? null : node);
+                    return;
+                }
+            }
         }
     }
 
@@ -50,7 +98,7 @@ public class ERDToolWindow implements ToolWindowFactory, DumbAware {
         return empty;
     }
 
-    private @NotNull JComponent buildUi(Node node) {
+    private @NotNull JComponent buildUi(Node node, NodeContent nodeContent) {
         JPanel panel = new JPanel(new BorderLayout());
 
         JTableWithToolbar.Column<?>[] columns = {new JTableWithToolbar.Column<>("Column Name", String.class, "",false), new JTableWithToolbar.Column<>("Type", String.class, "VARCHAR(255)",false),new JTableWithToolbar.Column<>("Default Value", String.class, null, false), new JTableWithToolbar.Column<>("PK",Boolean.class, false,true), new JTableWithToolbar.Column<>("NL", Boolean.class, true,true), new JTableWithToolbar.Column<>("UQ",Boolean.class, false, true), new JTableWithToolbar.Column<>("AI",Boolean.class, false, true)};
@@ -69,10 +117,7 @@ public class ERDToolWindow implements ToolWindowFactory, DumbAware {
                 boolean autoIncrement = (Boolean) object.get(6);
                 attributes.put(name,new Attribute(name,type,primaryKey,nullable,unique, autoIncrement, defaultValue));
             }
-            node.setAttributes(attributes);
-            if (node.getChanged() != null){
-                node.getChanged().run();
-            }
+            nodeContent.apply(attributes);
         });
 
         panel.add(table, BorderLayout.CENTER);
@@ -0,0 +1,113 @@
+package net.villagerzock.erdplugin.ui;
+
+import net.villagerzock.erdplugin.node.NodeGraph.Connection;
+
+import java.awt.geom.Point2D;
+import java.util.List;
+
+/**
+ * Fertig geroutete Geometrie einer Connection: Andockpunkte an den Node-Kanten, Symbolpunkte (| / O)
+ * und die orthogonalen Wegpunkte dazwischen. Wird von {@link ConnectionRouteCache} gehalten.
+ */
+public final class ConnectionRoute {
+    private final Connection connection;
+
+    private final Point2D startEdge;
+    private final Point2D endEdge;
+    private final int dirStart;
+    private final int dirEnd;
+    private final Point2D[] waypoints;
+    private final Segment[] segments;
+
+    /**
+     * Ein Teilstück der Route, das ist das was im Spatial Index liegt.
+     */
+    static final class Segment {
+        final ConnectionRoute route;
+        final int index;
+
+        private Segment(ConnectionRoute route, int index) {
+            this.route = route;
+            this.index = index;
+        }
+    }
+
+    ConnectionRoute(Connection connection, Point2D startEdge, Point2D endEdge, int dirStart, int dirEnd, List<Point2D> waypoints) {
+        this.connection = connection;
+        this.startEdge = startEdge;
+        this.endEdge = endEdge;
+        this.dirStart = dirStart;
+        this.dirEnd = dirEnd;
+        this.waypoints = waypoints.toArray(Point2D[]::new);
+        this.segments = new Segment[Math.max(this.waypoints.length - 1, 0)];
+        for (int i = 0; i < segments.length; i++) {
+            segments[i] = new Segment(this, i);
+        }
+    }
+
+    public Connection getConnection() {
+        return connection;
+    }
+
+    public Point2D getStartEdge() {
+        return startEdge;
+    }
+
+    public Point2D getEndEdge() {
+        return endEdge;
+    }
+
+    /**
+     * Punkt am | / O Symbol, dort beginnt die eigentliche Linie.
+     */
+    public Point2D getStartSymbol() {
+        return waypoints[0];
+    }
+
+    public Point2D getEndSymbol() {
+        return waypoints[waypoints.length - 1];
+    }
+
+    public int getDirStart() {
+        return dirStart;
+    }
+
+    public int getDirEnd() {
+        return dirEnd;
+    }
+
+    public int getWaypointCount() {
+        return waypoints.length;
+    }
+
+    public Point2D getWaypoint(int i) {
+        return waypoints[i];
+    }
+
+    Segment[] segments() {
+        return segments;
+    }
+
+    /**
+     * Abstand Punkt -> Segment {@code index} kleiner gleich {@code tolerance}, ohne Objekte anzulegen.
+     */
+    boolean isNear(int index, double x, double y, double tolerance) {
+        Point2D a = waypoints[index];
+        Point2D b = waypoints[index + 1];
+        double x1 = a.getX();
+        double y1 = a.getY();
+        double dx = b.getX() - x1;
+        double dy = b.getY() - y1;
+
+        double t = 0;
+        double lengthSq = dx * dx + dy * dy;
+        if (lengthSq > 0) {
+            t = ((x - x1) * dx + (y - y1) * dy) / lengthSq;
+            t = Math.max(0, Math.min(1, t));
+        }
+
+        double nx = x - (x1 + t * dx);
+        double ny = y - (y1 + t * dy);
+        return nx * nx + ny * ny <= tolerance * tolerance;
+    }
+}
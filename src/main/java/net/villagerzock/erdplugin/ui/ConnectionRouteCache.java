@@ -0,0 +1,122 @@
+package net.villagerzock.erdplugin.ui;
+
+import net.villagerzock.erdplugin.node.Node;
+import net.villagerzock.erdplugin.node.NodeGraph;
+import net.villagerzock.erdplugin.node.NodeGraph.Connection;
+import net.villagerzock.erdplugin.util.SpatialGrid;
+
+import java.util.*;
+import java.util.function.Predicate;
+
+/**
+ * Hält die gerouteten {@link ConnectionRoute}s (für Zeichnen, Minimap, Export und Hit-Tests) und einen Spatial Index über ihre Segmente.
+ * Routen werden nur neu berechnet wenn der Graph meldet dass sich ein Endpunkt geändert hat
+ * (oder das Layout einer Node neu gemessen wurde), ein Hover-Test fragt dann nur die Zellen um den Mauszeiger ab.
+ */
+public final class ConnectionRouteCache implements NodeGraph.ConnectionGeometryListener {
+    private static final double SEGMENT_CELL_SIZE = 256.0;
+
+    private final NodeGraph model;
+    private final NodeLayoutCache layouts;
+
+    private final Map<Connection, ConnectionRoute> routes = new IdentityHashMap<>();
+    private final Set<Connection> dirty = Collections.newSetFromMap(new IdentityHashMap<>());
+    private final SpatialGrid<ConnectionRoute.Segment> segments = new SpatialGrid<>(SEGMENT_CELL_SIZE);
+
+    // Parameter des laufenden Hit-Tests, damit das Predicate nichts capturen muss
+    private double hitX, hitY, hitTolerance;
+    private final Predicate<ConnectionRoute.Segment> segmentHit = s -> s.route.isNear(s.index, hitX, hitY, hitTolerance);
+
+    ConnectionRouteCache(NodeGraph model, NodeLayoutCache layouts) {
+        this.model = model;
+        this.layouts = layouts;
+        dirty.addAll(model.connections());
+        model.addConnectionGeometryListener(this);
+        layouts.setRebuildListener(this::layoutRebuilt);
+    }
+
+    @Override
+    public void geometryChanged(Connection connection) {
+        dirty.add(connection);
+    }
+
+    @Override
+    public void connectionRemoved(Connection connection) {
+        dirty.remove(connection);
+        unindex(routes.remove(connection));
+    }
+
+    private void layoutRebuilt(Node node) {
+        dirty.addAll(model.connectionsOf(node));
+    }
+
+    /**
+     * Aktuelle Route der Connection, null wenn sie nicht gezeichnet werden kann (Attribut fehlt / Node nie gemessen).
+     * Neu geroutet wird nur wenn sich seit dem letzten Aufruf ein Endpunkt geändert hat.
+     */
+    public ConnectionRoute get(Connection connection) {
+        if (dirty.contains(connection) && reroute(connection)) {
+            dirty.remove(connection);
+        }
+        return routes.get(connection);
+    }
+
+    /**
+     * Connection deren Route näher als {@code tolerance} an (x, y) vorbeigeht, oder null.
+     */
+    public Connection connectionAt(double x, double y, double tolerance) {
+        flush();
+        hitX = x;
+        hitY = y;
+        hitTolerance = tolerance;
+        ConnectionRoute.Segment segment = segments.find(x - tolerance, y - tolerance, x + tolerance, y + tolerance, segmentHit);
+        return segment == null ? null : segment.route.getConnection();
+    }
+
+    /**
+     * Berechnet alle als veraltet markierten Routen neu.
+     */
+    private void flush() {
+        if (dirty.isEmpty()) return;
+        for (Iterator<Connection> it = dirty.iterator(); it.hasNext(); ) {
+            if (reroute(it.next())) it.remove();
+        }
+    }
+
+    /**
+     * @return false wenn die Route später nochmal versucht werden muss (Node noch nicht gemessen)
+     */
+    private boolean reroute(Connection connection) {
+        unindex(routes.remove(connection));
+
+        Node from = connection.from();
+        Node to = connection.to();
+        if (!from.getAttributes().containsKey(connection.fromAttr()) || !to.getAttributes().containsKey(connection.toAttr())) {
+            // wird eh nicht gezeichnet, Attribut-Änderungen melden sich wieder über geometryChanged
+            return true;
+        }
+
+        NodeLayout fromLayout = layouts.peek(from);
+        NodeLayout toLayout = layouts.peek(to);
+        if (fromLayout == null || toLayout == null) return false;
+
+        ConnectionRoute route = ConnectionRouter.route(connection, fromLayout, toLayout);
+        if (route == null) return true;
+        routes.put(connection, route);
+        for (ConnectionRoute.Segment segment : route.segments()) {
+            double x1 = route.getWaypoint(segment.index).getX();
+            double y1 = route.getWaypoint(segment.index).getY();
+            double x2 = route.getWaypoint(segment.index + 1).getX();
+            double y2 = route.getWaypoint(segment.index + 1).getY();
+            segments.update(segment, Math.min(x1, x2), Math.min(y1, y2), Math.abs(x2 - x1), Math.abs(y2 - y1));
+        }
+        return true;
+    }
+
+    private void unindex(ConnectionRoute route) {
+        if (route == null) return;
+        for (ConnectionRoute.Segment segment : route.segments()) {
+            segments.remove(segment);
+        }
+    }
+}
@@ -0,0 +1,247 @@
+package net.villagerzock.erdplugin.ui;
+
+import net.villagerzock.erdplugin.node.Attribute;
+import net.villagerzock.erdplugin.node.Node;
+import net.villagerzock.erdplugin.node.NodeGraph.Connection;
+import net.villagerzock.erdplugin.ui.ErdCanvas.ConnectionIconType;
+import net.villagerzock.erdplugin.util.Vector2;
+
+import java.awt.geom.Line2D;
+import java.awt.geom.Point2D;
+import java.awt.geom.Rectangle2D;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Orthogonales Routing der Connections, wird von Canvas, Minimap und Export über {@link ConnectionRouteCache} benutzt.
+ */
+final class ConnectionRouter {
+    static final double MARGIN = 20.0; // Abstand zu Nodes beim Ausweichen
+
+    private enum Side { LEFT, RIGHT }
+
+    private ConnectionRouter() {
+    }
+
+    /**
+     * Routet eine Connection (Linie endet an den Symbol-Punkten), null wenn ein Attribut fehlt.
+     */
+    static ConnectionRoute route(Connection connection, NodeLayout fromLayout, NodeLayout toLayout) {
+        Node from = connection.from();
+        Node to = connection.to();
+
+        Attribute fromAttr = from.getAttributes().get(connection.fromAttr());
+        Attribute toAttr = to.getAttributes().get(connection.toAttr());
+        if (fromAttr == null || toAttr == null) return null;
+
+        int fromOff = fromLayout.connectionOffset(connection.fromAttr());
+        int toOff = toLayout.connectionOffset(connection.toAttr());
+        if (fromOff < 0 || toOff < 0) return null;
+
+        Point2D fromPos = from.getPosition();
+        Point2D toPos = to.getPosition();
+        Vector2 fromSize = from.getSize();
+        Vector2 toSize = to.getSize();
+
+        ConnectionIconType fromType = connection.type().getTypeFrom(fromAttr.nullable());
+        ConnectionIconType toType = connection.type().getTypeTo(toAttr.nullable());
+
+        // X-Overlap?
+        double fromLeftX = fromPos.getX();
+        double fromRightX = fromPos.getX() + fromSize.x();
+        double toLeftX = toPos.getX();
+        double toRightX = toPos.getX() + toSize.x();
+        boolean overlapX = fromLeftX - MARGIN < toRightX + MARGIN && fromRightX + MARGIN > toLeftX - MARGIN;
+
+        Side startSide, endSide;
+
+        if (overlapX) {
+            Side[] sides = chooseBestSidesForOverlap(
+                    fromPos, fromSize, fromOff,
+                    toPos, toSize, toOff,
+                    fromType, toType
+            );
+            startSide = sides[0];
+            endSide = sides[1];
+        } else {
+            // normal: Richtung zum Target-Center
+            startSide = (toPos.getX() + toSize.x() / 2.0 > fromPos.getX() + fromSize.x() / 2.0) ? Side.RIGHT : Side.LEFT;
+            endSide = (fromPos.getX() + fromSize.x() / 2.0 > toPos.getX() + toSize.x() / 2.0) ? Side.RIGHT : Side.LEFT;
+        }
+
+        Point2D startEdge = edgePoint(fromPos, fromSize, fromOff, startSide);
+        Point2D endEdge = edgePoint(toPos, toSize, toOff, endSide);
+
+        int dirStart = (startSide == Side.RIGHT) ? 1 : -1;
+        int dirEnd = (endSide == Side.RIGHT) ? 1 : -1;
+
+        // Punkte wo die Linie "enden" soll: beim | / O
+        Point2D startSymbol = offsetX(startEdge, dirStart * getSymbolOffset(fromType));
+        Point2D endSymbol = offsetX(endEdge, dirEnd * getSymbolOffset(toType));
+
+        // Route zwischen den Symbolpunkten berechnen (nicht bis zur Node-Kante)
+        List<Point2D> waypoints = calculateOrthogonalPath(
+                startSymbol, endSymbol, fromPos, fromSize, toPos, toSize
+        );
+
+        return new ConnectionRoute(connection, startEdge, endEdge, dirStart, dirEnd, waypoints);
+    }
+
+    private static Point2D edgePoint(Point2D pos, Vector2 size, int yOffset, Side side) {
+        double x = (side == Side.RIGHT) ? (pos.getX() + size.x()) : pos.getX();
+        double y = pos.getY() + yOffset;
+        return new Point2D.Double(x, y);
+    }
+
+    private static Point2D offsetX(Point2D p, double dx) {
+        return new Point2D.Double(p.getX() + dx, p.getY());
+    }
+
+    private static int getSymbolOffset(ConnectionIconType type) {
+        // Abstand von Node-Kante bis |/O
+        // (bei MANY_* ist |/O der "Tip", wo der Crowfoot hinläuft)
+        return 10;
+    }
+
+    private static double pathLength(List<Point2D> pts) {
+        double len = 0.0;
+        for (int i = 0; i < pts.size() - 1; i++) {
+            len += pts.get(i).distance(pts.get(i + 1));
+        }
+        return len;
+    }
+
+    private static Side[] chooseBestSidesForOverlap(
+            Point2D fromPos, Vector2 fromSize, int fromOff,
+            Point2D toPos, Vector2 toSize, int toOff,
+            ConnectionIconType fromType, ConnectionIconType toType
+    ) {
+        // expanded rects wie beim Routing
+        Rectangle2D fromRect = new Rectangle2D.Double(
+                fromPos.getX() - MARGIN, fromPos.getY() - MARGIN,
+                fromSize.x() + 2 * MARGIN, fromSize.y() + 2 * MARGIN
+        );
+        Rectangle2D toRect = new Rectangle2D.Double(
+                toPos.getX() - MARGIN, toPos.getY() - MARGIN,
+                toSize.x() + 2 * MARGIN, toSize.y() + 2 * MARGIN
+        );
+
+        Side bestStart = Side.RIGHT;
+        Side bestEnd = Side.LEFT;
+        double bestScore = Double.POSITIVE_INFINITY;
+
+        for (Side sStart : Side.values()) {
+            for (Side sEnd : Side.values()) {
+                Point2D startEdge = edgePoint(fromPos, fromSize, fromOff, sStart);
+                Point2D endEdge = edgePoint(toPos, toSize, toOff, sEnd);
+
+                int dirStart = (sStart == Side.RIGHT) ? 1 : -1;
+                int dirEnd = (sEnd == Side.RIGHT) ? 1 : -1;
+
+                Point2D startSymbol = offsetX(startEdge, dirStart * getSymbolOffset(fromType));
+                Point2D endSymbol = offsetX(endEdge, dirEnd * getSymbolOffset(toType));
+
+                List<Point2D> pts = calculateOrthogonalPath(
+                        startSymbol, endSymbol, fromPos, fromSize, toPos, toSize
+                );
+
+                double score = pathLength(pts);
+
+                // Penalty: wenn das erste Segment "zurück" läuft (macht |_0_|)
+                if (pts.size() >= 2) {
+                    Point2D p0 = pts.get(0);
+                    Point2D p1 = pts.get(1);
+                    double dx = p1.getX() - p0.getX();
+                    if (dirStart == 1 && dx < -0.01) score += 1_000_000;
+                    if (dirStart == -1 && dx > 0.01) score += 1_000_000;
+                }
+
+                // Penalty: wenn ein Segment durch einen Node-Rect geht (nur als extra Sicherheit)
+                for (int i = 0; i < pts.size() - 1; i++) {
+                    Line2D seg = new Line2D.Double(pts.get(i), pts.get(i + 1));
+                    if (fromRect.intersectsLine(seg) || toRect.intersectsLine(seg)) {
+                        score += 100_000; // weniger hart als "backtrack"
+                    }
+                }
+
+                if (score < bestScore) {
+                    bestScore = score;
+                    bestStart = sStart;
+                    bestEnd = sEnd;
+                }
+            }
+        }
+
+        return new Side[]{bestStart, bestEnd};
+    }
+
+    /**
+     * Berechnet orthogonale Wegpunkte zwischen Start und Ziel
+     */
+    private static List<Point2D> calculateOrthogonalPath(Point2D start, Point2D end,
+                                                         Point2D fromPos, Vector2 fromSize,
+                                                         Point2D toPos, Vector2 toSize) {
+        List<Point2D> waypoints = new ArrayList<>();
+        waypoints.add(start);
+
+        double startX = start.getX();
+        double startY = start.getY();
+        double endX = end.getX();
+        double endY = end.getY();
+
+        // Prüfe ob direkte horizontale Linie möglich ist
+        if (Math.abs(startY - endY) < 1.0) {
+            waypoints.add(end);
+            return waypoints;
+        }
+
+        // Berechne erweiterte Rechtecke für Kollisionserkennung
+        Rectangle2D fromRect = new Rectangle2D.Double(
+                fromPos.getX() - MARGIN,
+                fromPos.getY() - MARGIN,
+                fromSize.x() + 2 * MARGIN,
+                fromSize.y() + 2 * MARGIN
+        );
+
+        Rectangle2D toRect = new Rectangle2D.Double(
+                toPos.getX() - MARGIN,
+                toPos.getY() - MARGIN,
+                toSize.x() + 2 * MARGIN,
+                toSize.y() + 2 * MARGIN
+        );
+
+        // Standard: Horizontale Linie vom Start, dann vertikal, dann horizontal zum Ziel
+        double midX = (startX + endX) / 2;
+
+        // Prüfe ob Mittellinie die Nodes schneidet und weiche aus
+        if (intersectsVerticalLine(fromRect, midX) || intersectsVerticalLine(toRect, midX)) {
+            // Bestimme Ausweichrichtung basierend auf Startrichtung
+            boolean startsRight = startX > fromPos.getX() + fromSize.x() / 2;
+
+            if (startsRight) {
+                // Von rechts kommend - weiche rechts aus
+                midX = Math.max(
+                        fromPos.getX() + fromSize.x() + MARGIN,
+                        toPos.getX() + toSize.x() + MARGIN
+                );
+            } else {
+                // Von links kommend - weiche links aus
+                midX = Math.min(
+                        fromPos.getX() - MARGIN,
+                        toPos.getX() - MARGIN
+                );
+            }
+        }
+
+        // Füge Wegpunkte hinzu: horizontal -> vertikal -> horizontal
+        waypoints.add(new Point2D.Double(midX, startY));
+        waypoints.add(new Point2D.Double(midX, endY));
+        waypoints.add(end);
+
+        return waypoints;
+    }
+
+    private static boolean intersectsVerticalLine(Rectangle2D rect, double x) {
+        return x >= rect.getMinX() && x <= rect.getMaxX();
+    }
+}
@@ -0,0 +1,301 @@
+package net.villagerzock.erdplugin.ui;
+
+import com.intellij.openapi.util.SystemInfo;
+import com.intellij.openapi.vfs.VirtualFile;
+import net.villagerzock.erdplugin.node.Attribute;
+import net.villagerzock.erdplugin.node.Node;
+import net.villagerzock.erdplugin.node.NodeGraph;
+import net.villagerzock.erdplugin.util.Vector2;
+
+import java.awt.geom.Point2D;
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+
+/**
+ * Kompakte binäre Kodierung für .erd Dateien (big endian):
+ * <pre>
+ * magic        "ERDB"
+ * strings      int count, count * (int offset, int length), int byteCount, UTF-8 bytes
+ * meta         int count, count * (int key, int value)                       -> String-Indizes
+ * nodes        int count, count * (double x, double y, int name, int firstAttribute, int attributeCount, int id)
+ * attributes   int count, count * (int name, int type, int default, byte flags)
+ * connections  int count, count * (int from, int fromAttr, int to, int toAttr, byte type)
+ * </pre>
+ * Vor Version 3 fehlt die Node-Id und {@code from} / {@code to} sind Node-Indizes.
+ * Alle Strings (Namen, Typen, ...) stehen nur einmal in der String-Tabelle, Records haben feste Breite
+ * und werden direkt aus dem (wenn möglich memory-mapped) Buffer gelesen.
+ */
+final class ErdBinaryFormat {
+    private static final byte[] MAGIC = {'E', 'R', 'D', 'B'};
+
+    private static final int NODE_RECORD_V2 = 8 + 8 + 4 + 4 + 4;
+    private static final int NODE_RECORD = NODE_RECORD_V2 + 4;
+    private static final int ATTRIBUTE_RECORD = 4 + 4 + 4 + 1;
+    private static final int CONNECTION_RECORD = 4 + 4 + 4 + 4 + 1;
+
+    private static final int PRIMARY_KEY = 1;
+    private static final int NULLABLE = 1 << 1;
+    private static final int UNIQUE = 1 << 2;
+    private static final int AUTO_INCREMENT = 1 << 3;
+
+    private ErdBinaryFormat() {
+    }
+
+    static boolean isBinary(VirtualFile file) throws IOException {
+        if (file.getLength() < MAGIC.length) return false;
+        try (InputStream in = file.getInputStream()) {
+            return Arrays.equals(in.readNBytes(MAGIC.length), MAGIC);
+        }
+    }
+
+    /**
+     * Lokale Dateien werden gemappt statt komplett auf den Heap kopiert.
+     * Unter Windows nicht, dort blockiert ein offenes Mapping das nächste Speichern bis zum GC.
+     */
+    static ByteBuffer map(VirtualFile file) throws IOException {
+        if (file.isInLocalFileSystem() && !SystemInfo.isWindows) {
+            try (FileChannel channel = FileChannel.open(file.toNioPath(), StandardOpenOption.READ)) {
+                return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            }
+        }
+        return ByteBuffer.wrap(file.contentsToByteArray());
+    }
+
+    // ===== Lesen =====
+
+    /**
+     * String-Tabelle die erst beim ersten Zugriff dekodiert, gleiche Indizes liefern dieselbe String-Instanz.
+     */
+    private static final class StringTable {
+        private final ByteBuffer buffer;
+        private final int indexStart;
+        private final int dataStart;
+        private final String[] strings;
+
+        private StringTable(ByteBuffer buffer, int indexStart, int dataStart, int count) {
+            this.buffer = buffer;
+            this.indexStart = indexStart;
+            this.dataStart = dataStart;
+            this.strings = new String[count];
+        }
+
+        String get(int index) {
+            if (index < 0) return null;
+            String string = strings[index];
+            if (string == null) {
+                int offset = buffer.getInt(indexStart + index * 8);
+                int length = buffer.getInt(indexStart + index * 8 + 4);
+                byte[] bytes = new byte[length];
+                buffer.get(dataStart + offset, bytes);
+                string = new String(bytes, StandardCharsets.UTF_8);
+                strings[index] = string;
+            }
+            return string;
+        }
+    }
+
+    static NodeGraph read(ByteBuffer buffer, VirtualFile file) throws IOException {
+        byte[] magic = new byte[MAGIC.length];
+        buffer.get(0, magic);
+        if (!Arrays.equals(magic, MAGIC)) throw new IOException("Not a binary ERD file");
+        buffer.position(MAGIC.length);
+
+        int stringCount = buffer.getInt();
+        int indexStart = buffer.position();
+        buffer.position(indexStart + stringCount * 8);
+        int byteCount = buffer.getInt();
+        int dataStart = buffer.position();
+        buffer.position(dataStart + byteCount);
+        StringTable strings = new StringTable(buffer, indexStart, dataStart, stringCount);
+
+        int metaCount = buffer.getInt();
+        String encoding = null;
+        int version = 1;
+        for (int i = 0; i < metaCount; i++) {
+            String key = strings.get(buffer.getInt());
+            String value = strings.get(buffer.getInt());
+            if ("encoding".equals(key)) encoding = value;
+            if ("version".equals(key)) version = ErdIo.parseVersion(value);
+        }
+        boolean withIds = version >= ErdIo.FIRST_VERSION_WITH_IDS;
+        int nodeRecord = withIds ? NODE_RECORD : NODE_RECORD_V2;
+        if (encoding != null && !ErdIo.Encoding.BINARY.getId().equals(encoding)) {
+            throw new IOException("Unexpected encoding in binary ERD file: " + encoding);
+        }
+
+        int nodeCount = buffer.getInt();
+        int nodeStart = buffer.position();
+        buffer.position(nodeStart + nodeCount * nodeRecord);
+
+        int attributeCount = buffer.getInt();
+        int attributeStart = buffer.position();
+        buffer.position(attributeStart + attributeCount * ATTRIBUTE_RECORD);
+
+        int connectionCount = buffer.getInt();
+        int connectionStart = buffer.position();
+
+        List<Node> nodes = new ArrayList<>(nodeCount);
+        Map<Integer, Node> byId = new HashMap<>(nodeCount * 2);
+        for (int i = 0; i < nodeCount; i++) {
+            int record = nodeStart + i * nodeRecord;
+            Point2D position = new Point2D.Double(buffer.getDouble(record), buffer.getDouble(record + 8));
+            String name = strings.get(buffer.getInt(record + 16));
+            int first = buffer.getInt(record + 20);
+            int count = buffer.getInt(record + 24);
+
+            Map<String, Attribute> attributeMap = new LinkedHashMap<>(count * 2);
+            for (int a = first; a < first + count; a++) {
+                int attributeRecord = attributeStart + a * ATTRIBUTE_RECORD;
+                String attributeName = strings.get(buffer.getInt(attributeRecord));
+                String type = strings.get(buffer.getInt(attributeRecord + 4));
+                String defaultValue = strings.get(buffer.getInt(attributeRecord + 8));
+                int flags = buffer.get(attributeRecord + 12);
+                attributeMap.put(attributeName, new Attribute(
+                        attributeName, type,
+                        (flags & PRIMARY_KEY) != 0,
+                        (flags & NULLABLE) != 0,
+                        (flags & UNIQUE) != 0,
+                        (flags & AUTO_INCREMENT) != 0,
+                        defaultValue
+                ));
+            }
+
+            Node node = new Node(position, name, attributeMap, new Vector2(0, 0));
+            if (withIds) {
+                node.setId(buffer.getInt(record + 28));
+                byId.putIfAbsent(node.getId(), node);
+            } else {
+                byId.put(i, node);
+            }
+            nodes.add(node);
+        }
+
+        NodeGraph.ConnectionType[] types = NodeGraph.ConnectionType.values();
+        List<NodeGraph.Connection> connections = new ArrayList<>(connectionCount);
+        for (int i = 0; i < connectionCount; i++) {
+            int record = connectionStart + i * CONNECTION_RECORD;
+            int from = buffer.getInt(record);
+            String fromAttr = strings.get(buffer.getInt(record + 4));
+            int to = buffer.getInt(record + 8);
+            String toAttr = strings.get(buffer.getInt(record + 12));
+            int type = buffer.get(record + 16);
+
+            Node fromNode = byId.get(from);
+            Node toNode = byId.get(to);
+            if (fromNode == null || toNode == null || type < 0 || type >= types.length) continue;
+            if (!fromNode.getAttributes().containsKey(fromAttr) || !toNode.getAttributes().containsKey(toAttr)) continue;
+
+            connections.add(new NodeGraph.Connection(fromNode, fromAttr, toNode, toAttr, types[type]));
+        }
+
+        return new NodeGraph(connections, nodes, file);
+    }
+
+    // ===== Schreiben =====
+
+    static void write(OutputStream out, List<Node> nodes, List<NodeGraph.Connection> connections) throws IOException {
+        Map<String, Integer> strings = new LinkedHashMap<>();
+
+        int attributeCount = 0;
+        for (Node node : nodes) {
+            intern(strings, node.getName());
+            for (Attribute attribute : node.getAttributes().values()) {
+                intern(strings, attribute.name());
+                intern(strings, attribute.type());
+                intern(strings, attribute.defaultValue());
+                attributeCount++;
+            }
+        }
+        for (NodeGraph.Connection connection : connections) {
+            intern(strings, connection.fromAttr());
+            intern(strings, connection.toAttr());
+        }
+        String[][] meta = {
+                {"version", ErdIo.LATEST_VERSION},
+                {"encoding", ErdIo.Encoding.BINARY.getId()}
+        };
+        for (String[] entry : meta) {
+            intern(strings, entry[0]);
+            intern(strings, entry[1]);
+        }
+
+        DataOutputStream data = new DataOutputStream(new BufferedOutputStream(out));
+        data.write(MAGIC);
+
+        // strings
+        List<byte[]> encoded = new ArrayList<>(strings.size());
+        for (String string : strings.keySet()) {
+            encoded.add(string.getBytes(StandardCharsets.UTF_8));
+        }
+        data.writeInt(encoded.size());
+        int offset = 0;
+        for (byte[] bytes : encoded) {
+            data.writeInt(offset);
+            data.writeInt(bytes.length);
+            offset += bytes.length;
+        }
+        data.writeInt(offset);
+        for (byte[] bytes : encoded) {
+            data.write(bytes);
+        }
+
+        // meta
+        data.writeInt(meta.length);
+        for (String[] entry : meta) {
+            data.writeInt(strings.get(entry[0]));
+            data.writeInt(strings.get(entry[1]));
+        }
+
+        // nodes
+        data.writeInt(nodes.size());
+        int firstAttribute = 0;
+        for (Node node : nodes) {
+            data.writeDouble(node.getPosition().getX());
+            data.writeDouble(node.getPosition().getY());
+            data.writeInt(index(strings, node.getName()));
+            data.writeInt(firstAttribute);
+            data.writeInt(node.getAttributes().size());
+            data.writeInt(node.getId());
+            firstAttribute += node.getAttributes().size();
+        }
+
+        // attributes
+        data.writeInt(attributeCount);
+        for (Node node : nodes) {
+            for (Attribute attribute : node.getAttributes().values()) {
+                data.writeInt(index(strings, attribute.name()));
+                data.writeInt(index(strings, attribute.type()));
+                data.writeInt(index(strings, attribute.defaultValue()));
+                int flags = (attribute.primaryKey() ? PRIMARY_KEY : 0)
+                        | (attribute.nullable() ? NULLABLE : 0)
+                        | (attribute.unique() ? UNIQUE : 0)
+                        | (attribute.autoIncrement() ? AUTO_INCREMENT : 0);
+                data.writeByte(flags);
+            }
+        }
+
+        // connections
+        data.writeInt(connections.size());
+        for (NodeGraph.Connection connection : connections) {
+            data.writeInt(connection.from().getId());
+            data.writeInt(index(strings, connection.fromAttr()));
+            data.writeInt(connection.to().getId());
+            data.writeInt(index(strings, connection.toAttr()));
+            data.writeByte(connection.type().ordinal());
+        }
+
+        data.flush();
+    }
+
+    private static void intern(Map<String, Integer> strings, String string) {
+        if (string != null) strings.putIfAbsent(string, strings.size());
+    }
+
+    private static int index(Map<String, Integer> strings, String string) {
+        return string == null ? -1 : strings.get(string);
+    }
+}
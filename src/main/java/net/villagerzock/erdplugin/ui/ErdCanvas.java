@@ -1,10 +1,13 @@
 package net.villagerzock.erdplugin.ui;
 
+import com.intellij.openapi.progress.ProgressIndicator;
+import com.intellij.openapi.progress.Task;
 import com.intellij.openapi.project.Project;
 import com.intellij.ui.JBColor;
 import icons.DatabaseIcons;
 import net.villagerzock.erdplugin.node.*;
 import net.villagerzock.erdplugin.util.Vector2;
+import org.jetbrains.annotations.NotNull;
 
 import javax.imageio.ImageIO;
 import javax.swing.*;
@@ -12,7 +15,6 @@ import javax.swing.Timer;
 import java.awt.*;
 import java.awt.event.*;
 import java.awt.font.FontRenderContext;
-import java.awt.font.TextLayout;
 import java.awt.geom.*;
 import java.awt.image.BufferedImage;
 import java.io.File;
@@ -84,11 +86,23 @@ public class ErdCanvas extends JComponent {
     private static Corner minimapCorner = Corner.TOP_RIGHT;
     private static Point2D.Double movingMinimapOffset = null;
     private final Timer animationTimer = new Timer(8,this::tick);
+    // Drag / Wheel Eingaben werden gesammelt und einmal pro Frame angewendet
+    private final Timer frameTimer = new Timer(16, e -> applyInput());
+    private int pendingPanX = 0;
+    private int pendingPanY = 0;
+    private int pendingMoveX = 0;
+    private int pendingMoveY = 0;
+    private double pendingZoom = 1.0;
+    private Point pendingZoomAnchor = null;
+    private Point pendingRubberBandEnd = null;
     private static Corner currentAnimateToCorner = Corner.CUSTOM;
 
 
     private void tick(ActionEvent actionEvent) {
-        if (currentAnimateToCorner == Corner.CUSTOM){return;}
+        if (currentAnimateToCorner == Corner.CUSTOM){
+            animationTimer.stop();
+            return;
+        }
 
         double tarX = currentAnimateToCorner.calcX(10, getWidth(), minimapW);
         double tarY = currentAnimateToCorner.calcY(10, getHeight(), minimapH);
@@ -102,29 +116,336 @@ public class ErdCanvas extends JComponent {
         double dist2 = vx*vx + vy*vy;
         double step = 64.0;
 
+        markDirty(minimapBounds());
         if (dist2 <= step*step) {
             movingMinimapOffset.x = tarX;
             movingMinimapOffset.y = tarY;
 
             minimapCorner = currentAnimateToCorner;
             currentAnimateToCorner = Corner.CUSTOM;
+            animationTimer.stop();
 
-            repaint();
+            markDirty(minimapBounds());
+            repaintDirty();
             return;
         }
 
         double invDist = 1.0 / Math.sqrt(dist2);
         movingMinimapOffset.x += vx * invDist * step;
         movingMinimapOffset.y += vy * invDist * step;
-        repaint();
+        markDirty(minimapBounds());
+        repaintDirty();
+
+    }
+    // ===== Eingaben pro Frame =====
+
+    private void scheduleInput(){
+        if (!frameTimer.isRunning()){
+            frameTimer.setRepeats(false);
+            frameTimer.start();
+        }
+    }
+
+    /**
+     * Wendet alle seit dem letzten Frame gesammelten Pan- / Zoom- / Move-Deltas auf einmal an,
+     * mit höchstens einem {@link ErdEditorPanel#changed()} und einem Repaint.
+     */
+    private void applyInput(){
+        frameTimer.stop();
+        boolean full = false;
+
+        if (pendingZoomAnchor != null){
+            double oldZoom = view.zoom;
+            view.zoom = clamp(view.zoom * pendingZoom, 0.3, 6.5);
+
+            Point2D before = screenToWorld(pendingZoomAnchor, oldZoom);
+            Point2D after = screenToWorld(pendingZoomAnchor);
+
+            view.panX += ((after.getX()-before.getX()) * view.zoom) / 2.0;
+            view.panY += ((after.getY()-before.getY()) * view.zoom) / 2.0;
+            pendingZoom = 1.0;
+            pendingZoomAnchor = null;
+            full = true;
+        }
 
+        if (pendingPanX != 0 || pendingPanY != 0){
+            view.panX += pendingPanX;
+            view.panY += pendingPanY;
+            pendingPanX = 0;
+            pendingPanY = 0;
+            full = true;
+        }
+
+        if ((pendingMoveX != 0 || pendingMoveY != 0) && draggingNode && selected != null){
+            // alte und neue Bounds der bewegten Nodes samt ihrer Connections
+            markDirtySelection();
+            selected.moveBy(pendingMoveX / view.zoom, pendingMoveY / view.zoom);
+            markDirtySelection();
+            // Model geändert -> Minimap-Bild ist veraltet
+            minimapDirty = true;
+        }
+        pendingMoveX = 0;
+        pendingMoveY = 0;
+
+        if (pendingRubberBandEnd != null && draggingSelectionFrom != null){
+            Point2D mousePos = screenToWorld(pendingRubberBandEnd);
+
+            double x1 = Math.min(draggingSelectionFrom.getX(),mousePos.getX());
+            double y1 = Math.min(draggingSelectionFrom.getY(),mousePos.getY());
+
+            double x2 = Math.max(draggingSelectionFrom.getX(),mousePos.getX()) - x1;
+            double y2 = Math.max(draggingSelectionFrom.getY(),mousePos.getY()) - y1;
+            updateRubberBand(x1, y1, x2, y2);
+        }
+        pendingRubberBandEnd = null;
+
+        if (full){
+            dirty = null;
+            minimapDirty = false;
+            repaint();
+        }else {
+            repaintDirty();
+        }
     }
-    private static void animateMinimapTo(Corner corner){
+
+    // ===== Dirty-Region =====
+
+    /**
+     * Screen-Bereich der Minimap inklusive Resize-Griff.
+     */
+    private Rectangle minimapBounds(){
+        return minimapBounds(new Rectangle());
+    }
+
+    private Rectangle minimapBounds(Rectangle into){
+        int x = (int) Math.floor(minimapCorner.calcX(10, getWidth(), minimapW));
+        int y = (int) Math.floor(minimapCorner.calcY(10, getHeight(), minimapH));
+        into.setBounds(x - DIRTY_PAD, y - DIRTY_PAD, minimapW + 2 * DIRTY_PAD, minimapH + 2 * DIRTY_PAD);
+        return into;
+    }
+
+    private void markDirty(Rectangle screen){
+        if (dirty == null){
+            dirty = new Rectangle(screen);
+        }else {
+            dirty.add(screen);
+        }
+    }
+
+    /**
+     * Markiert einen World-Bereich, mit etwas Rand für Strokes, Auswahlrahmen und Crowfeet.
+     */
+    private void markDirtyWorld(double x, double y, double w, double h){
+        double originX = view.panX + (getWidth() / 2.0);
+        double originY = view.panY + (getHeight() / 2.0);
+        int sx = (int) Math.floor(originX + x * view.zoom) - DIRTY_PAD;
+        int sy = (int) Math.floor(originY + y * view.zoom) - DIRTY_PAD;
+        int sw = (int) Math.ceil(w * view.zoom) + 2 * DIRTY_PAD + 1;
+        int sh = (int) Math.ceil(h * view.zoom) + 2 * DIRTY_PAD + 1;
+        if (dirty == null){
+            dirty = new Rectangle(sx, sy, sw, sh);
+        }else {
+            dirty.add(new Rectangle(sx, sy, sw, sh));
+        }
+    }
+
+    private void markDirty(Node node){
+        markDirtyWorld(node.getPosition().getX(), node.getPosition().getY(), node.getSize().x(), node.getSize().y());
+    }
+
+    /**
+     * Eine Connection kann überall zwischen ihren beiden Nodes verlaufen (wie im Index von {@link NodeGraph}).
+     */
+    private void markDirty(Connection connection){
+        if (connection == null) return;
+        Point2D a = connection.from().getPosition();
+        Point2D b = connection.to().getPosition();
+        double minX = Math.min(a.getX(), b.getX()) - CONNECTION_DIRTY_MARGIN;
+        double minY = Math.min(a.getY(), b.getY()) - CONNECTION_DIRTY_MARGIN;
+        double maxX = Math.max(a.getX() + connection.from().getSize().x(), b.getX() + connection.to().getSize().x()) + CONNECTION_DIRTY_MARGIN;
+        double maxY = Math.max(a.getY() + connection.from().getSize().y(), b.getY() + connection.to().getSize().y()) + CONNECTION_DIRTY_MARGIN;
+        markDirtyWorld(minX, minY, maxX - minX, maxY - minY);
+    }
+
+    private void markDirtyWithConnections(Node node){
+        markDirty(node);
+        for (Connection connection : model.connectionsOf(node)){
+            markDirty(connection);
+        }
+    }
+
+    private void markDirtySelection(){
+        if (selected instanceof Node node){
+            markDirtyWithConnections(node);
+        }else if (selected instanceof Connection connection){
+            markDirtyWithConnections(connection.from());
+            markDirtyWithConnections(connection.to());
+        }else if (selected instanceof MultiSelection multiSelection){
+            for (Node node : multiSelection.getNodes()){
+                markDirtyWithConnections(node);
+            }
+            for (Connection connection : multiSelection.getConnections()){
+                markDirtyWithConnections(connection.from());
+                markDirtyWithConnections(connection.to());
+            }
+        }
+    }
+
+    /**
+     * Änderungen von außerhalb (Tool Window, Undo, ...) nur dort neu zeichnen wo sie passiert sind.
+     * Bei Größenänderungen ist die alte Größe schon beim AttributeChanged davor markiert worden.
+     */
+    private void graphChanged(List<GraphChange> changes){
+        for (GraphChange change : changes){
+            switch (change){
+                case GraphChange.NodeAdded c -> markDirtyWithConnections(c.node());
+                case GraphChange.NodeRemoved c -> markDirty(c.node());
+                case GraphChange.NodeMoved c -> markDirtyWithConnections(c.node());
+                case GraphChange.NodeResized c -> markDirtyWithConnections(c.node());
+                case GraphChange.AttributeChanged c -> markDirtyWithConnections(c.node());
+                case GraphChange.ConnectionAdded c -> markDirty(c.connection());
+                case GraphChange.ConnectionRemoved c -> markDirty(c.connection());
+                case GraphChange.BulkChange c -> {
+                    dirty = null;
+                    minimapDirty = false;
+                    measureNewNodes();
+                    repaint();
+                    return;
+                }
+            }
+        }
+        measureNewNodes();
+        minimapDirty = true;
+        repaintDirty();
+    }
+
+    @Override
+    public void addNotify() {
+        super.addNotify();
+        measureNewNodes();
+    }
+
+    /**
+     * Misst neue Nodes direkt nach der Änderung statt erst im Paint, ihre Größen werden dann nicht mitten im Zeichnen gemeldet.
+     * Gleicher Font / FontRenderContext wie in {@link #paintGraph}, dort ist das Layout also schon gültig.
+     */
+    private void measureNewNodes(){
+        if (model.unmeasuredNodes().isEmpty()) return;
+        Graphics g = getGraphics();
+        // noch nicht angezeigt: dann misst der erste Paint
+        if (g == null) return;
+        Graphics2D g2 = (Graphics2D) g;
+        try {
+            g2.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+            scene.measureUnmeasured(g2, g2.getFontRenderContext());
+        } finally {
+            g2.dispose();
+        }
+    }
+
+    /**
+     * Meldet {@link #dirty} und ggf. die Minimap beim RepaintManager an, gezeichnet wird erst später und zusammengefasst.
+     * Wird auch aus Graph-Listenern aufgerufen, darf also nie selbst zeichnen.
+     */
+    private void repaintDirty(){
+        if (minimapDirty){
+            minimapDirty = false;
+            repaint(minimapBounds());
+        }
+        if (dirty == null) return;
+        repaint(dirty);
+        dirty = null;
+    }
+
+    private void updateRubberBand(double x, double y, double w, double h){
+        markDirtyWorld(rubberBand.x, rubberBand.y, rubberBand.width, rubberBand.height);
+        markDirtyWorld(x, y, w, h);
+        Rectangle2D.Double previous = rubberBand;
+        rubberBand = lastRubberBand;
+        lastRubberBand = previous;
+        rubberBand.setRect(x, y, w, h);
+
+        if (!(selected instanceof MultiSelection s) || s != rubberBandSelection){
+            // erster Frame (oder Auswahl wurde zwischendurch ersetzt): alles im Rechteck neu bestimmen
+            MultiSelection multiSelection = selected instanceof MultiSelection s ? s : new MultiSelection();
+            multiSelection.reset();
+            selected = multiSelection;
+            rubberBandSelection = multiSelection;
+            visitRubberBand(rubberBand);
+            return;
+        }
+
+        // nur Nodes die ins Rechteck hinein- oder herauswandern können
+        visitDifference(rubberBand, lastRubberBand);
+        visitDifference(lastRubberBand, rubberBand);
+    }
+
+    /**
+     * Besucht alle Nodes in {@code a} ohne {@code b} (als bis zu vier Streifen).
+     */
+    private void visitDifference(Rectangle2D a, Rectangle2D b){
+        double ix1 = Math.max(a.getMinX(), b.getMinX());
+        double iy1 = Math.max(a.getMinY(), b.getMinY());
+        double ix2 = Math.min(a.getMaxX(), b.getMaxX());
+        double iy2 = Math.min(a.getMaxY(), b.getMaxY());
+        if (ix1 > ix2 || iy1 > iy2){
+            visitRubberBand(a);
+            return;
+        }
+        if (a.getMinX() < ix1) model.forEachNodeIn(a.getMinX(), a.getMinY(), ix1, a.getMaxY(), rubberBandVisitor);
+        if (a.getMaxX() > ix2) model.forEachNodeIn(ix2, a.getMinY(), a.getMaxX(), a.getMaxY(), rubberBandVisitor);
+        if (a.getMinY() < iy1) model.forEachNodeIn(ix1, a.getMinY(), ix2, iy1, rubberBandVisitor);
+        if (a.getMaxY() > iy2) model.forEachNodeIn(ix1, iy2, ix2, a.getMaxY(), rubberBandVisitor);
+    }
+
+    private void visitRubberBand(Rectangle2D area){
+        model.forEachNodeIn(area.getMinX(), area.getMinY(), area.getMaxX(), area.getMaxY(), rubberBandVisitor);
+    }
+
+    private void updateRubberBandNode(Node node){
+        MultiSelection multiSelection = rubberBandSelection;
+        boolean inside = rubberBand.intersects(node.getPosition().getX(), node.getPosition().getY(), node.getSize().x(), node.getSize().y());
+        if (inside == multiSelection.hasNode(node)) return;
+        markDirtyWithConnections(node);
+        // Auswahl-Overlay der Minimap hat sich geändert
+        minimapDirty = true;
+
+        if (inside){
+            multiSelection.addNode(node);
+            for (Connection connection : model.connectionsOf(node)){
+                Node other = connection.from() == node ? connection.to() : connection.from();
+                if (multiSelection.hasNode(other)) multiSelection.addConnection(connection);
+            }
+        }else {
+            multiSelection.removeNode(node);
+            for (Connection connection : model.connectionsOf(node)){
+                multiSelection.removeConnection(connection);
+            }
+        }
+    }
+
+    private void animateMinimapTo(Corner corner){
         currentAnimateToCorner = corner;
+        // Timer läuft nur solange die Minimap animiert
+        if (!animationTimer.isRunning()){
+            animationTimer.start();
+        }
     }
 
+    private static final int DIRTY_PAD = 16;
+    private static final double CONNECTION_DIRTY_MARGIN = 20.0;
+    // Bereich (Screen) der beim nächsten repaintDirty() neu gezeichnet wird
+    private Rectangle dirty = null;
+    // Minimap (Bild oder Auswahl) hat sich geändert, repaintDirty() meldet sie mit einem eigenen repaint() an
+    private boolean minimapDirty = false;
+
     private boolean draggingNode = false;
     private Point2D draggingSelectionFrom = null;
+    // Rubber-Band: aktuelles / vorheriges Rechteck, pro Frame werden nur Nodes im Unterschied der beiden angefasst
+    private Rectangle2D.Double rubberBand = new Rectangle2D.Double();
+    private Rectangle2D.Double lastRubberBand = new Rectangle2D.Double();
+    private MultiSelection rubberBandSelection = null;
+    private final Consumer<Node> rubberBandVisitor = this::updateRubberBandNode;
     private boolean panning = false;
     private Connection hoveredConnection = null;
 
@@ -132,7 +453,36 @@ public class ErdCanvas extends JComponent {
     private static int minimapW = 250;
     private static int minimapH = 200;
 
-    private NodeGraphSnapshot beforeMoving = null;
+    // gecachter Inhalt der Minimap (Nodes + Connections), wird nur bei Model- / Zoom- / Größen-Änderung neu gezeichnet
+    private BufferedImage minimapImage = null;
+    private long minimapRevision = -1;
+    private double minimapImageFactor = 0;
+    private double minimapImageScale = 0;
+    private boolean minimapImageBright = true;
+
+
+    private final NodeLayoutCache layoutCache = new NodeLayoutCache();
+    private final ConnectionRouteCache routeCache;
+    private final ErdScene scene;
+    private final TileCache tileCache = new TileCache();
+    // Paint-Pfad legt im eingeschwungenen Zustand nichts an, siehe ErdPalette
+    private final ErdPalette.ScaledAlpha gridAlpha = new ErdPalette.ScaledAlpha();
+    private final GridTexture gridTexture = new GridTexture();
+    private final ErdPalette.ScaledStroke lowDetailStroke = new ErdPalette.ScaledStroke(1f);
+    private final ErdPalette.ScaledStroke lowDetailOverlayStroke = new ErdPalette.ScaledStroke(2f);
+    private final Line2D.Double line = new Line2D.Double();
+    private final Rectangle clipBounds = new Rectangle();
+    private final Rectangle minimapRect = new Rectangle();
+    private final Rectangle2D.Double visibleWorld = new Rectangle2D.Double();
+    private final RoundRectangle2D.Double minimapClip = new RoundRectangle2D.Double();
+    private final AffineTransform minimapImageTx = new AffineTransform();
+    private final Rectangle2D.Double minimapViewport = new Rectangle2D.Double();
+    // Auswahl für drawMinimapSelection, wenn sie nicht schon als Collections vorliegt
+    private final List<Node> minimapSelectedNodes = new ArrayList<>(1);
+    private final List<Connection> minimapSelectedConnections = new ArrayList<>(1);
+    // Ergebnis der Spatial-Index-Abfrage des laufenden Frames
+    private final List<Node> visibleNodes = new ArrayList<>();
+    private final List<NodeGraph.Connection> visibleConnections = new ArrayList<>();
 
     private static Consumer<INodeSelectable> selectedNodeChanged = (n) ->{};
 
@@ -153,21 +503,24 @@ public class ErdCanvas extends JComponent {
     }
 
     public ErdCanvas(NodeGraph model, ErdViewState view, ErdSelectionState selection, ErdEditorPanel panel, Project project) {
-        animationTimer.start();
         this.model = model;
         this.view = view;
         this.selection = selection;
         this.panel = panel;
+        this.routeCache = new ConnectionRouteCache(model, layoutCache);
+        this.scene = new ErdScene(model, layoutCache, routeCache, ErdIcons.PLATFORM, this);
+        model.addChangeListener(this::graphChanged);
         setFocusable(true);
 
         KeyAdapter key = new KeyAdapter() {
             @Override
             public void keyPressed(KeyEvent e) {
-                if (e.getKeyCode() == KeyEvent.VK_DELETE){
+                if (e.getKeyCode() == KeyEvent.VK_DELETE && !panel.isFormatting()){
+                    panel.beginEdit();
                     model.delete(selected);
+                    panel.endEdit("Delete");
                     selected = null;
                     selectedNodeChanged.accept(null);
-                    panel.changed();
                     repaint();
                 }
             }
@@ -229,6 +582,8 @@ public class ErdCanvas extends JComponent {
                         if (connection == null){
                             draggingSelectionFrom = world;
                             selected = new MultiSelection();
+                            rubberBandSelection = null;
+                            rubberBand.setRect(world.getX(), world.getY(), 0, 0);
                             return;
                         }
                         if (e.isControlDown()){
@@ -245,13 +600,17 @@ public class ErdCanvas extends JComponent {
                         }else if (!(selected instanceof MultiSelection multiSelection) || !multiSelection.hasConnection(connection)) {
                             selected = connection;
                         }
-                        draggingNode = true;
-                        beforeMoving = NodeGraphSnapshot.of(model);
+                        if (!panel.isFormatting()) {
+                            draggingNode = true;
+                            panel.beginEdit();
+                        }
                     }else {
                         if (currentConnection == null){
-                            draggingNode = true;
-                            beforeMoving = NodeGraphSnapshot.of(model);
-                            setCursor(Cursor.getPredefinedCursor(Cursor.MOVE_CURSOR));
+                            if (!panel.isFormatting()) {
+                                draggingNode = true;
+                                panel.beginEdit();
+                                setCursor(Cursor.getPredefinedCursor(Cursor.MOVE_CURSOR));
+                            }
                         }else if (currentConnection.getFrom() == null){
                             currentConnection.setFrom(node);
                         }else {
@@ -264,9 +623,13 @@ public class ErdCanvas extends JComponent {
 
             @Override
             public void mouseReleased(MouseEvent e) {
+                // letzte Bewegung gehört noch zum Drag (und zu dessen Undo-Schritt)
+                applyInput();
                 panning = false;
+                if (draggingNode) panel.endEdit("Move");
                 draggingNode = false;
                 draggingSelectionFrom = null;
+                rubberBandSelection = null;
                 resizingMinimap = false;
                 if (movingMinimap){
                     if (e.getPoint().getX()-(getWidth()/2.0) <= 0){
@@ -295,79 +658,51 @@ public class ErdCanvas extends JComponent {
                 int dy = e.getY() - lastMouse.y;
 
                 if (draggingSelectionFrom != null){
-                    Point2D mousePos = screenToWorld(e.getPoint());
-
-                    double x1 = Math.min(draggingSelectionFrom.getX(),mousePos.getX());
-                    double y1 = Math.min(draggingSelectionFrom.getY(),mousePos.getY());
-
-                    double x2 = Math.max(draggingSelectionFrom.getX(),mousePos.getX()) - x1;
-                    double y2 = Math.max(draggingSelectionFrom.getY(),mousePos.getY()) - y1;
-                    Rectangle2D.Double selectionRect = new Rectangle2D.Double(x1,y1,x2,y2);
-
-                    MultiSelection multiSelection;
-                    if (selected instanceof MultiSelection s){
-                        multiSelection = s;
-                    }else {
-                        multiSelection = new MultiSelection();
-                        selected = multiSelection;
-                    }
-
-                    multiSelection.reset();
-
-                    for (Node node : model.nodes()){
-                        Rectangle2D.Double nodeRect = new Rectangle2D.Double(node.getPosition().getX(),node.getPosition().getY(), node.getSize().x(), node.getSize().y());
-                        if (nodeRect.intersects(selectionRect)){
-                            multiSelection.addNode(node);
-                        }
-                    }
-                    for (Connection connection : model.connections()){
-                        if (multiSelection.hasNode(connection.from()) && multiSelection.hasNode(connection.to()))
-                            multiSelection.addConnection(connection);
-                    }
+                    pendingRubberBandEnd = e.getPoint();
+                    scheduleInput();
                 }
 
                 if (resizingMinimap){
+                    markDirty(minimapBounds());
                     minimapW += dx*minimapCorner.x;
                     minimapH += dy*minimapCorner.y;
-                    repaint(new Rectangle(10,10,minimapW,minimapH));
+                    markDirty(minimapBounds());
                 }else if (movingMinimap){
+                    markDirty(minimapBounds());
                     movingMinimapOffset = new Point2D.Double(minimapCorner.calcX(10,getWidth(),minimapW)+dx, minimapCorner.calcY(10,getHeight(),minimapH)+dy);
+                    markDirty(minimapBounds());
                 }
 
                 if (panning){
-                    view.panX += dx;
-                    view.panY += dy;
+                    pendingPanX += dx;
+                    pendingPanY += dy;
+                    scheduleInput();
                 }else if (draggingNode){
-                    selected.moveBy(dx / view.zoom, dy / view.zoom);
-                    panel.changed();
+                    pendingMoveX += dx;
+                    pendingMoveY += dy;
+                    scheduleInput();
                 }
 
                 lastMouse = e.getPoint();
-                repaint();
+                repaintDirty();
             }
 
             @Override
             public void mouseWheelMoved(MouseWheelEvent e) {
-                double oldZoom = view.zoom;
                 double factor = (e.getPreciseWheelRotation() < 0) ? 1.1 : (1.0 / 1.1);
-                view.zoom = clamp(view.zoom * factor, 0.3, 6.5);
-
-                Point p = e.getPoint();
-                Point2D before = screenToWorld(p, oldZoom);
-                Point2D after = screenToWorld(p);
-
-                view.panX += ((after.getX()-before.getX()) * view.zoom) / 2.0;
-                view.panY += ((after.getY()-before.getY()) * view.zoom) / 2.0;
-
-                repaint();
+                pendingZoom *= factor;
+                pendingZoomAnchor = e.getPoint();
+                scheduleInput();
                 e.consume();
             }
             @Override
             public void mouseMoved(MouseEvent e) {
                 Connection con = getConnection(screenToWorld(e.getPoint()));
                 if (con != hoveredConnection){
+                    markDirty(hoveredConnection);
+                    markDirty(con);
                     hoveredConnection = con;
-                    repaint();
+                    repaintDirty();
                 }
 
                 Rectangle hitbox = switch (minimapCorner) {
@@ -393,6 +728,15 @@ public class ErdCanvas extends JComponent {
     }
 
     private void runNewConnection(Node node) {
+        panel.beginEdit();
+        try {
+            createConnection(node);
+        } finally {
+            panel.endEdit("Create Connection");
+        }
+    }
+
+    private void createConnection(Node node) {
         switch (currentConnection.getType()){
             case OneToOne -> {
                 for (Attribute pk : node.getPrimaryKeys()){
@@ -463,12 +807,11 @@ public class ErdCanvas extends JComponent {
                         joinPos,
                         joinName.get(),
                         new java.util.HashMap<>(),
-                        new Vector2(0, 0),
-                        panel::changed
+                        new Vector2(0, 0)
                 );
 
                 // Node ins Model hängen
-                model.nodes().add(join);
+                model.addNode(join);
 
                 // FK/PK Attribute von "from" in die Join-Tabelle + Connection (Join=MANY -> From=ONE)
                 for (Attribute pk : from.getPrimaryKeys()) {
@@ -498,110 +841,39 @@ public class ErdCanvas extends JComponent {
                 return;
             }
         }
-        panel.changed();
         currentConnection = null;
     }
 
-    public static Node getSelectedNode() {
-        return (selected instanceof Node node) ? node : null;
-    }
-
-    public Node hitNode(Point2D worldPos){
-        for (int i = model.nodes().size()-1; i>=0;i--){
-            Node node = model.nodes().get(i);
-            if (
-                    worldPos.getX() >= node.getPosition().getX()
-                    && worldPos.getY() >= node.getPosition().getY()
-                    && worldPos.getX() <= node.getPosition().getX() + node.getSize().x()
-                    && worldPos.getY() <= node.getPosition().getY() + node.getSize().y()
-            ){
-                return node;
-            }
-        }
-        return null;
+    /**
+     * Editor wird geschlossen: Auswahl aus diesem Diagramm verwerfen und dem Tool Window Bescheid geben,
+     * damit es seinen Listener am Model wieder abmeldet. Die Auswahl eines anderen Editors bleibt stehen.
+     */
+    void dispose(){
+        if (!isFromModel(selected)) return;
+        selected = null;
+        selectedNodeChanged.accept(null);
     }
 
-    private enum Side { LEFT, RIGHT }
-
-    private Point2D edgePoint(Point2D pos, Vector2 size, int yOffset, Side side){
-        double x = (side == Side.RIGHT) ? (pos.getX() + size.x()) : pos.getX();
-        double y = pos.getY() + yOffset;
-        return new Point2D.Double(x, y);
+    /**
+     * Ob {@code selection} Nodes / Connections aus {@link #model} enthält, {@link #selected} ist für alle Editoren gleich.
+     */
+    private boolean isFromModel(INodeSelectable selection){
+        return switch (selection) {
+            case Node node -> node.getGraph() == model;
+            case Connection connection -> connection.from().getGraph() == model;
+            case MultiSelection multiSelection ->
+                    multiSelection.getNodes().stream().anyMatch(node -> node.getGraph() == model)
+                    || multiSelection.getConnections().stream().anyMatch(connection -> connection.from().getGraph() == model);
+            case null, default -> false;
+        };
     }
 
-    private double pathLength(List<Point2D> pts){
-        double len = 0.0;
-        for (int i = 0; i < pts.size() - 1; i++){
-            len += pts.get(i).distance(pts.get(i + 1));
-        }
-        return len;
+    public static Node getSelectedNode() {
+        return (selected instanceof Node node) ? node : null;
     }
 
-
-    private Side[] chooseBestSidesForOverlap(
-            Node from, Node to,
-            Point2D fromPos, Vector2 fromSize, int fromOff,
-            Point2D toPos, Vector2 toSize, int toOff,
-            ConnectionIconType fromType, ConnectionIconType toType
-    ){
-        // expanded rects wie du sie beim Routing nutzt
-        Rectangle2D fromRect = new Rectangle2D.Double(
-                fromPos.getX() - MARGIN, fromPos.getY() - MARGIN,
-                fromSize.x() + 2 * MARGIN, fromSize.y() + 2 * MARGIN
-        );
-        Rectangle2D toRect = new Rectangle2D.Double(
-                toPos.getX() - MARGIN, toPos.getY() - MARGIN,
-                toSize.x() + 2 * MARGIN, toSize.y() + 2 * MARGIN
-        );
-
-        Side bestStart = Side.RIGHT;
-        Side bestEnd = Side.LEFT;
-        double bestScore = Double.POSITIVE_INFINITY;
-
-        for (Side sStart : Side.values()){
-            for (Side sEnd : Side.values()){
-                Point2D startEdge = edgePoint(fromPos, fromSize, fromOff, sStart);
-                Point2D endEdge = edgePoint(toPos, toSize, toOff, sEnd);
-
-                int dirStart = (sStart == Side.RIGHT) ? 1 : -1;
-                int dirEnd = (sEnd == Side.RIGHT) ? 1 : -1;
-
-                Point2D startSymbol = offsetX(startEdge, dirStart * getSymbolOffset(fromType));
-                Point2D endSymbol = offsetX(endEdge, dirEnd * getSymbolOffset(toType));
-
-                List<Point2D> pts = calculateOrthogonalPath(
-                        startSymbol, endSymbol,
-                        from, to, fromPos, fromSize, toPos, toSize
-                );
-
-                double score = pathLength(pts);
-
-                // Penalty: wenn das erste Segment "zurück" läuft (macht dein |_0_|)
-                if (pts.size() >= 2){
-                    Point2D p0 = pts.get(0);
-                    Point2D p1 = pts.get(1);
-                    double dx = p1.getX() - p0.getX();
-                    if (dirStart == 1 && dx < -0.01) score += 1_000_000;
-                    if (dirStart == -1 && dx > 0.01) score += 1_000_000;
-                }
-
-                // Penalty: wenn ein Segment durch einen Node-Rect geht (nur als extra Sicherheit)
-                for (int i = 0; i < pts.size() - 1; i++){
-                    Line2D seg = new Line2D.Double(pts.get(i), pts.get(i + 1));
-                    if (fromRect.intersectsLine(seg) || toRect.intersectsLine(seg)){
-                        score += 100_000; // weniger hart als "backtrack"
-                    }
-                }
-
-                if (score < bestScore){
-                    bestScore = score;
-                    bestStart = sStart;
-                    bestEnd = sEnd;
-                }
-            }
-        }
-
-        return new Side[]{bestStart, bestEnd};
+    public Node hitNode(Point2D worldPos){
+        return model.nodeAt(worldPos);
     }
 
     public enum ImageType{
@@ -626,40 +898,32 @@ public class ErdCanvas extends JComponent {
         }
     }
 
-    public void exportAsPng(File file, ImageType format,int multiplier) throws IOException {
+    /**
+     * SVG wird direkt geschrieben. PNG / JPG laufen als Hintergrund-Task mit Fortschritt und Abbrechen,
+     * Snapshot, Icons und Hintergrund werden vorher hier auf dem EDT festgehalten.
+     */
+    public void exportAsPng(Project project, File file, ImageType format,int multiplier) throws IOException {
         Rectangle2D bounds = model.getBounds();
-        GraphRenderer renderer = new GraphRenderer(model,this);
         if (format == ImageType.SVG){
-            SvgExport.exportSvg(renderer,bounds,file,multiplier);
+            SvgExport.exportSvg(new GraphRenderer(scene,getBackground()),bounds,file,multiplier);
             return;
         }
 
-        int imageType = format.hasTransparency ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB;
-
-        int w = (int) Math.ceil(bounds.getWidth() * multiplier);
-        int h = (int) Math.ceil(bounds.getHeight() * multiplier);
-
-        BufferedImage img = new BufferedImage(w,h,imageType);
-        Graphics2D imageGraphics = img.createGraphics();
-        try {
-            imageGraphics.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
-
-            if (imageType == BufferedImage.TYPE_INT_RGB){
-                imageGraphics.setColor(JBColor.WHITE);
-                imageGraphics.fillRect(0,0,w,h);
+        NodeGraphSnapshot snapshot = NodeGraphSnapshot.of(model);
+        ErdIcons icons = ErdIcons.rendered(this, multiplier);
+        Color background = new Color(getBackground().getRGB(), true);
+        new Task.Backgroundable(project, "Exporting image", true) {
+            @Override
+            public void run(@NotNull ProgressIndicator indicator) {
+                indicator.setIndeterminate(false);
+                // in Bändern parallel rendern und der Reihe nach direkt in den Encoder streamen, nie das ganze Bild im Speicher
+                try {
+                    TiledImageExport.export(snapshot, icons, background, bounds, multiplier, format, file, indicator);
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
             }
-
-            imageGraphics.setClip(0,0,w,h);
-            imageGraphics.scale(multiplier,multiplier);
-            imageGraphics.translate(-bounds.getX(),-bounds.getY());
-
-
-            renderer.paintGraph(imageGraphics,bounds,!format.hasTransparency);
-        }finally {
-            imageGraphics.dispose();
-        }
-
-        ImageIO.write(img,format.getFormat(),file);
+        }.queue();
     }
 
     @Override
@@ -675,165 +939,197 @@ public class ErdCanvas extends JComponent {
             g2.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
 
             FontRenderContext frc = g2.getFontRenderContext();
-            if (this.h == 0){
-                FontMetrics fm = g2.getFontMetrics(g2.getFont());
-                int h = fm.getHeight();
-                this.h = h;
-            }
+
+            Rectangle clip = clipBounds(g);
 
             g2.setColor(getBackground());
-            g2.fillRect(0,0,getWidth(),getHeight());
+            g2.fillRect(clip.x, clip.y, clip.width, clip.height);
             g2.translate(view.panX + (getWidth() / 2.0), view.panY + (getHeight() / 2.0));
             g2.scale(view.zoom, view.zoom);
 
-            Graphics2D gridGraphics = (Graphics2D) g.create();
-
-            gridGraphics.setColor(new JBColor(Color.BLACK.brighter().brighter(),Color.WHITE.darker().darker()));
-
-            gridGraphics.setStroke(new BasicStroke(0.01f));
-            int spacing = 50;
-
-            double actualZoom = view.zoom;
-
-            Composite composite = AlphaComposite.getInstance(AlphaComposite.SRC_OVER, (float) Math.clamp(actualZoom/2,0.1,1));
-            gridGraphics.setComposite(composite);
-
-            AffineTransform xTransform = new AffineTransform();
-            xTransform.translate(Math.floorMod((int) (view.panX + (getWidth() / 2.0)), (int) (spacing*actualZoom)), 0);
-            xTransform.scale(actualZoom,1);
-            for (int i = -2; i<=((double) getWidth() / spacing) / actualZoom; i++){
-                Line2D line = new Line2D.Double(i*spacing,0,i*spacing,getHeight());
-                gridGraphics.draw(xTransform.createTransformedShape(line));
-            }
+            paintGrid(g, clip);
 
+            // noch nie gemessene Nodes einmal messen, sonst stimmt der Spatial Index nicht
+            scene.measureUnmeasured(g2, frc);
 
+            Rectangle2D visible = visibleWorldRect(clip);
+            model.nodesIn(visible, visibleNodes);
 
-            AffineTransform yTransform = new AffineTransform();
-            yTransform.translate(0, Math.floorMod((int) (view.panY + (getHeight() / 2.0)), (int) (spacing*actualZoom)));
-            yTransform.scale(1,actualZoom);
-
-            for (int i = -2; i<=((double) getHeight() / spacing) / actualZoom; i++){
-                Line2D line = new Line2D.Double(0,i*spacing,getWidth(),i*spacing);
-                gridGraphics.draw(yTransform.createTransformedShape(line));
+            ErdViewState.Detail detail = view.detail();
+            if (detail == ErdViewState.Detail.FULL){
+                model.connectionsIn(visible, visibleConnections);
+                scene.paintConnections(g2, frc, visibleConnections, selected, hoveredConnection);
+                scene.paintNodes(g2, frc, visibleNodes, selected, hoveredConnection);
+            }else {
+                // rausgezoomt: vereinfachte statische Ebene aus gecachten Kacheln, Auswahl / Hover darüber
+                for (int i = 0; i < visibleNodes.size(); i++){
+                    layoutCache.get(visibleNodes.get(i), g2, frc);
+                }
+                paintTiles(g, clip, detail);
+                paintLowDetailOverlay(g2, visible, detail);
             }
 
-            for (NodeGraph.Connection connection : model.connections()){
-                Node from = connection.from();
-                Attribute fromAttr = from.getAttributes().get(connection.fromAttr());
-                int fromId = from.getAttributes().values().stream().toList().indexOf(fromAttr);
-
-                Node to = connection.to();
-                Attribute toAttr = to.getAttributes().get(connection.toAttr());
-                int toId = to.getAttributes().values().stream().toList().indexOf(toAttr);
-
-                if (from.getSize().x() == 0 || to.getSize().x() == 0) continue;
-
-                int fromOff = -10+(h*(fromId+2) + (h/2));
-                int toOff = -10+(h*(toId+2) + (h/2));
-
-                drawConnection(from, to, g2, fromOff,toOff, connection == hoveredConnection, INodeSelectable.isSelected(selected,connection), connection.type().getTypeFrom(fromAttr.nullable()), connection.type().getTypeTo(toAttr.nullable()));
+            if (draggingSelectionFrom != null){
+                // dasselbe Rechteck das mouseDragged als Dirty-Region gemeldet hat
+                g2.setColor(ErdPalette.RUBBER_BAND);
+                Composite old = g2.getComposite();
+                g2.setComposite(ErdPalette.RUBBER_BAND_COMPOSITE);
+                g2.fill(rubberBand);
+                g2.setComposite(old);
             }
 
-            for (Node node : model.nodes()){
-                TextLayout l = new TextLayout(node.getName(), g2.getFont(), frc);
-                int width = Math.max((int)l.getAdvance() + 4,10);
-
-                for (Attribute attribute : node.getAttributes().values()){
-                    String attributeText = String.format("%s %s",attribute.name(), attribute.type());
-                    if (attributeText.isBlank()) continue;
-                    TextLayout layout = new TextLayout(attributeText, g2.getFont(), frc);
-                    float w = layout.getAdvance() + 12;
-                    if (w > width){
-                        width =(int) w;
-                    }
-                }
-
-                node.setSize(new Vector2(width+20,h*(node.getAttributes().size() + 1)+20));
-
-                g2.setColor(new JBColor(Color.LIGHT_GRAY.brighter(), Color.DARK_GRAY.darker()));
-                g2.fillRoundRect((int) node.getPosition().getX(), (int) node.getPosition().getY(),node.getSize().x(),node.getSize().y(), 10,10);
-
-                g2.setColor(new JBColor(Color.LIGHT_GRAY, Color.DARK_GRAY));
-                g2.drawLine((int) node.getPosition().getX(), (int) (node.getPosition().getY() + h + 2), (int) (node.getPosition().getX() + node.getSize().x()), (int) (node.getPosition().getY() + h + 2));
+        }finally {
+            g2.dispose();
+            // keine Nodes über den Frame hinaus festhalten
+            visibleNodes.clear();
+            visibleConnections.clear();
+        }
+        if (!clipBounds(g).intersects(minimapBounds(minimapRect))) return;
+        Graphics2D mapG2 = (Graphics2D) g.create();
+        try {
+            drawMinimap(mapG2);
+        } finally {
+            mapG2.dispose();
+        }
+    }
 
+    /**
+     * Grid in Screen-Koordinaten als gekachelte Textur, eine Zelle ist 50 World-Einheiten groß.
+     */
+    private void paintGrid(Graphics g, Rectangle clip){
+        Graphics2D gridGraphics = (Graphics2D) g.create();
+        try {
+            double step = 50 * view.zoom;
+            // Linien liegen bei Ursprung + i * step
+            double anchorX = view.panX + (getWidth() / 2.0);
+            double anchorY = view.panY + (getHeight() / 2.0);
+            gridGraphics.setComposite(gridAlpha.get((float) Math.clamp(view.zoom/2,0.1,1)));
+            gridGraphics.setPaint(gridTexture.get(anchorX, anchorY, step, gridGraphics.getTransform().getScaleX()));
+            gridGraphics.fillRect(clip.x, clip.y, clip.width, clip.height);
+        }finally {
+            gridGraphics.dispose();
+        }
+    }
 
-                if (INodeSelectable.isSelected(selected,node)){
-                    g2.setColor(new JBColor(Color.LIGHT_GRAY.darker().darker(), Color.DARK_GRAY.brighter().brighter()));
-                }else {
-                    g2.setColor(new JBColor(Color.LIGHT_GRAY, Color.DARK_GRAY));
-                }
+    private void paintTiles(Graphics g, Rectangle clip, ErdViewState.Detail detail){
+        Graphics2D tileGraphics = (Graphics2D) g.create();
+        try {
+            tileCache.paint(
+                    tileGraphics, clip,
+                    view.panX + (getWidth() / 2.0), view.panY + (getHeight() / 2.0), view.zoom,
+                    model.getModificationCount(), detail,
+                    (tg, area) -> paintLowDetail(tg, area, detail)
+            );
+        }finally {
+            tileGraphics.dispose();
+        }
+    }
 
-                g2.drawRoundRect((int) node.getPosition().getX(), (int) node.getPosition().getY(),node.getSize().x(),node.getSize().y(), 10,10);
+    /**
+     * Statische Ebene für TITLE / BOX: Connections als gerade Linien zwischen den Mittelpunkten, Nodes ohne Attribute.
+     */
+    private void paintLowDetail(Graphics2D g2, Rectangle2D area, ErdViewState.Detail detail){
+        g2.setStroke(lowDetailStroke.get(view.zoom));
+        g2.setColor(ErdPalette.CONNECTION);
+        for (NodeGraph.Connection connection : model.connectionsIn(area)){
+            drawStraightConnection(g2, connection);
+        }
+        g2.setStroke(ErdPalette.NODE_STROKE);
+        for (Node node : model.nodesIn(area)){
+            paintLowDetailNode(g2, node, detail, false);
+        }
+    }
 
-                g2.setColor(JBColor.BLACK);
-                DatabaseIcons.Table.paintIcon(this, g2, (int) node.getPosition().getX()+2, (int) node.getPosition().getY()+2);
-                g2.drawString(node.getName(), (int) node.getPosition().getX()+20, (int) node.getPosition().getY()+h-2);
+    private void paintLowDetailOverlay(Graphics2D g2, Rectangle2D visible, ErdViewState.Detail detail){
+        if (selected == null && hoveredConnection == null) return;
+
+        model.connectionsIn(visible, visibleConnections);
+        g2.setStroke(lowDetailOverlayStroke.get(view.zoom));
+        for (int i = 0; i < visibleConnections.size(); i++){
+            NodeGraph.Connection connection = visibleConnections.get(i);
+            boolean isSelected = INodeSelectable.isSelected(selected, connection);
+            if (!isSelected && connection != hoveredConnection) continue;
+            g2.setColor(isSelected ? ErdPalette.SELECTED : ErdPalette.HOVERED);
+            drawStraightConnection(g2, connection);
+        }
+        if (selected == null) return;
 
-                for (int i = 0; i< node.getAttributes().size(); i++){
-                    Attribute attribute = node.getAttributes().values().toArray(Attribute[]::new)[i];
-                    int attributeWidth = 4;
-                    if (!attribute.type().isBlank()){
-                        TextLayout layout = new TextLayout(attribute.type(), g2.getFont(), frc);
-                        attributeWidth = (int) (layout.getAdvance()+4);
-                    }
+        for (int i = 0; i < visibleNodes.size(); i++){
+            Node node = visibleNodes.get(i);
+            if (INodeSelectable.isSelected(selected, node)){
+                paintLowDetailNode(g2, node, detail, true);
+            }
+        }
+    }
 
-                    boolean isForeignKey = model.isForeignKey(node, attribute.name());
-                    Icon icon = attribute.primaryKey() ? isForeignKey ? DatabaseIcons.ColGoldBlueKey : DatabaseIcons.ColGoldKey : isForeignKey ? DatabaseIcons.ColBlueKey : DatabaseIcons.Col;
-                    if (selected instanceof NodeGraph.Connection connection){
-                        if ((node == connection.from() && Objects.equals(attribute.name(), connection.fromAttr())) || (node == connection.to() && Objects.equals(attribute.name(), connection.toAttr()))){
-                            g2.setColor(JBColor.RED.darker());
-                            g2.fillRect((int) node.getPosition().getX()+2,(int) node.getPosition().getY()-10+(h*(i+2)),node.getSize().x()-4,16);
-                            g2.setColor(JBColor.BLACK);
-                        }
-                    }else if (hoveredConnection != null){
-                        if ((node == hoveredConnection.from() && Objects.equals(attribute.name(), hoveredConnection.fromAttr())) || (node == hoveredConnection.to() && Objects.equals(attribute.name(), hoveredConnection.toAttr()))){
-                            g2.setColor(JBColor.GREEN.darker());
-                            g2.fillRect((int) node.getPosition().getX()+2,(int) node.getPosition().getY()-10+(h*(i+2)),node.getSize().x()-4,16);
-                            g2.setColor(JBColor.BLACK);
-                        }
-                    }
+    private void drawStraightConnection(Graphics2D g2, NodeGraph.Connection connection){
+        Node from = connection.from();
+        Node to = connection.to();
+        line.setLine(
+                from.getPosition().getX() + from.getSize().x() / 2.0, from.getPosition().getY() + from.getSize().y() / 2.0,
+                to.getPosition().getX() + to.getSize().x() / 2.0, to.getPosition().getY() + to.getSize().y() / 2.0
+        );
+        g2.draw(line);
+    }
 
-                    icon.paintIcon(this, g2, (int) node.getPosition().getX()+2, (int) node.getPosition().getY()-10+(h*(i+2)));
-                    g2.drawString(attribute.name(),(int) node.getPosition().getX()+20, (int) node.getPosition().getY()+(h*(i+2))+4);
-                    g2.drawString(attribute.type(),(int) (node.getPosition().getX()+node.getSize().x()) - (attributeWidth + 4), (int) node.getPosition().getY()+(h*(i+2))+4);
-                }
-            }
+    private void paintLowDetailNode(Graphics2D g2, Node node, ErdViewState.Detail detail, boolean isSelected){
+        int x = (int) node.getPosition().getX();
+        int y = (int) node.getPosition().getY();
+        int w = node.getSize().x();
+        int h = node.getSize().y();
 
-            if (draggingSelectionFrom != null){
-                Point mp = getMousePosition();
-                if (mp != null){
-                    Point2D mousePos = screenToWorld(mp);
+        Color outline = isSelected ? ErdPalette.NODE_BORDER_SELECTED : ErdPalette.NODE_BORDER;
 
-                    double x1 = Math.min(draggingSelectionFrom.getX(),mousePos.getX());
-                    double y1 = Math.min(draggingSelectionFrom.getY(),mousePos.getY());
+        g2.setColor(ErdPalette.NODE_FILL);
+        if (detail == ErdViewState.Detail.BOX){
+            g2.fillRect(x, y, w, h);
+            g2.setColor(outline);
+            g2.drawRect(x, y, w, h);
+            return;
+        }
 
-                    double x2 = Math.max(draggingSelectionFrom.getX(),mousePos.getX()) - x1;
-                    double y2 = Math.max(draggingSelectionFrom.getY(),mousePos.getY()) - y1;
+        g2.fillRoundRect(x, y, w, h, 10, 10);
+        g2.setColor(outline);
+        g2.drawRoundRect(x, y, w, h, 10, 10);
 
-                    g2.setColor(JBColor.BLUE);
-                    Composite old = g2.getComposite();
-                    g2.setComposite(AlphaComposite.getInstance(AlphaComposite.SRC_OVER,0.35f));
-                    g2.fill(new Rectangle2D.Double(x1,y1,x2,y2));
-                    g2.setComposite(old);
-                }
+        NodeLayout layout = layoutCache.peek(node);
+        if (layout != null){
+            g2.setColor(ErdPalette.TEXT);
+            layout.drawTitle(g2, x + 20, y + layout.getRowHeight() - 2);
+        }
+    }
 
+    public NodeLayoutCache getLayoutCache() {
+        return layoutCache;
+    }
 
-            }
+    /**
+     * Clip von {@code g} bzw. die ganze Komponente, in {@link #clipBounds} statt einem neuen Rectangle.
+     */
+    private Rectangle clipBounds(Graphics g){
+        // ohne Clip lässt getClipBounds(Rectangle) das Rechteck unverändert
+        clipBounds.setBounds(0, 0, getWidth(), getHeight());
+        return g.getClipBounds(clipBounds);
+    }
 
-        }finally {
-            g2.dispose();
-        }
-        Graphics2D mapG2 = (Graphics2D) g.create();
-        try {
-            drawMinimap(mapG2);
-        } catch (NoninvertibleTransformException e) {
-            throw new RuntimeException(e);
-        } finally {
-            mapG2.dispose();
-        }
+    /**
+     * Sichtbarer Bereich (Clip) in World-Koordinaten, etwas größer wegen Strokes / Crowfeet.
+     * Liefert immer {@link #visibleWorld}, nur bis zum nächsten Aufruf gültig.
+     */
+    private Rectangle2D visibleWorldRect(Rectangle clip){
+        double pad = 8.0;
+        double x = (clip.x - (view.panX + (getWidth() / 2.0))) / view.zoom;
+        double y = (clip.y - (view.panY + (getHeight() / 2.0))) / view.zoom;
+        visibleWorld.setRect(
+                x - pad,
+                y - pad,
+                clip.getWidth() / view.zoom + pad * 2,
+                clip.getHeight() / view.zoom + pad * 2
+        );
+        return visibleWorld;
     }
 
-    private void drawMinimap(Graphics2D g2) throws NoninvertibleTransformException {
+    private void drawMinimap(Graphics2D g2) {
         int w = getWidth();
         int h = getHeight();
         double factor = 0.05 * minimapZoom;
@@ -844,55 +1140,35 @@ public class ErdCanvas extends JComponent {
 
         Graphics2D gScreen = (Graphics2D) g2.create();
         try {
-            Shape clipShape = new RoundRectangle2D.Double(mapX,mapY,mapW,mapH,10,10);
-            gScreen.setClip(clipShape);
+            minimapClip.setRoundRect(mapX,mapY,mapW,mapH,10,10);
+            gScreen.setClip(minimapClip);
 
-            gScreen.setColor(new JBColor(Color.LIGHT_GRAY, Color.DARK_GRAY));
-            gScreen.fill(clipShape);
+            double deviceScale = gScreen.getTransform().getScaleX();
+            minimapImageTx.setToTranslation(mapX, mapY);
+            minimapImageTx.scale(1 / deviceScale, 1 / deviceScale);
+            gScreen.drawImage(minimapImage(mapW, mapH, factor, deviceScale), minimapImageTx, null);
 
             Graphics2D gWorld = (Graphics2D) gScreen.create();
             try {
                 gWorld.translate(mapX + mapW / 2.0, mapY + mapH / 2.0);
                 gWorld.scale(factor,factor);
 
-                gWorld.setColor(JBColor.BLACK);
-
-                AffineTransform viewTx = new AffineTransform();
-                viewTx.translate(view.panX + (w / 2.0), view.panY + (h / 2.0));
-                viewTx.scale(view.zoom, view.zoom);
-
-                Shape worldViewport = viewTx.createInverse().createTransformedShape(new Rectangle2D.Double(0,0, w, h));
-                gWorld.setColor(JBColor.RED.darker());
-                gWorld.draw(worldViewport);
-                for (NodeGraph.Connection connection : model.connections()){
-                    Node from = connection.from();
-                    Attribute fromAttr = from.getAttributes().get(connection.fromAttr());
-                    int fromId = from.getAttributes().values().stream().toList().indexOf(fromAttr);
-
-                    Node to = connection.to();
-                    Attribute toAttr = to.getAttributes().get(connection.toAttr());
-                    int toId = to.getAttributes().values().stream().toList().indexOf(toAttr);
-
-                    if (from.getSize().x() == 0 || to.getSize().x() == 0) continue;
-
-                    int fromOff = -10+(this.h*(fromId+2) + (this.h/2));
-                    int toOff = -10+(this.h*(toId+2) + (this.h/2));
+                // sichtbarer Bereich in World-Koordinaten, Umkehrung von Pan + Zoom aus paintGraph
+                minimapViewport.setRect(
+                        -(view.panX + (w / 2.0)) / view.zoom,
+                        -(view.panY + (h / 2.0)) / view.zoom,
+                        w / view.zoom,
+                        h / view.zoom
+                );
+                gWorld.setColor(ErdPalette.MINIMAP_VIEWPORT);
+                gWorld.draw(minimapViewport);
 
-                    drawSimpleConnection(from,to,gWorld,fromOff,toOff,factor,INodeSelectable.isSelected(selected,connection));
-                }
-                for (Node node : model.nodes()){
-                    boolean sel = INodeSelectable.isMinimapSelected(selected,node);
-                    gWorld.setStroke(new BasicStroke((float) (sel ? 2f/factor : 1f/factor)));
-                    gWorld.setColor(sel
-                            ? JBColor.GREEN
-                            : JBColor.BLUE);
-                    gWorld.draw(new Rectangle2D.Double(node.getPosition().getX(),node.getPosition().getY(),node.getSize().x(),node.getSize().y()));
-                }
+                drawMinimapSelection(gWorld, factor);
             }finally {
                 gWorld.dispose();
             }
-            gScreen.setColor(JBColor.BLACK);
-            gScreen.setStroke(new BasicStroke(1.5f));
+            gScreen.setColor(ErdPalette.MINIMAP_HANDLE);
+            gScreen.setStroke(ErdPalette.MINIMAP_HANDLE_STROKE);
             switch (minimapCorner){
                 case CUSTOM:
                     gScreen.drawLine((int) (mapW+movingMinimapOffset.x)-10, (int)(mapH+movingMinimapOffset.y) -3, (int)(mapW+movingMinimapOffset.x) -3, (int)(mapH+movingMinimapOffset.y)-10);
@@ -937,123 +1213,75 @@ public class ErdCanvas extends JComponent {
         }
     }
 
-    private int h;
+    private BufferedImage minimapImage(int mapW, int mapH, double factor, double deviceScale){
+        int pixelW = Math.max((int) Math.ceil(mapW * deviceScale), 1);
+        int pixelH = Math.max((int) Math.ceil(mapH * deviceScale), 1);
+        if (
+                minimapImage != null
+                && minimapImage.getWidth() == pixelW && minimapImage.getHeight() == pixelH
+                && minimapRevision == model.getModificationCount()
+                && minimapImageFactor == factor
+                && minimapImageScale == deviceScale
+                && minimapImageBright == JBColor.isBright()
+        ){
+            return minimapImage;
+        }
 
+        BufferedImage image = new BufferedImage(pixelW, pixelH, BufferedImage.TYPE_INT_ARGB);
+        Graphics2D gImage = image.createGraphics();
+        try {
+            gImage.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+            gImage.scale(deviceScale, deviceScale);
+            gImage.setColor(ErdPalette.MINIMAP_BACKGROUND);
+            gImage.fillRect(0, 0, mapW, mapH);
 
+            gImage.translate(mapW / 2.0, mapH / 2.0);
+            gImage.scale(factor, factor);
 
+            scene.paintOverview(gImage, factor);
+        }finally {
+            gImage.dispose();
+        }
 
+        minimapImage = image;
+        minimapRevision = model.getModificationCount();
+        minimapImageFactor = factor;
+        minimapImageScale = deviceScale;
+        minimapImageBright = JBColor.isBright();
+        return image;
+    }
 
     /**
-     * Findet die Connection unter einem bestimmten Punkt
+     * Auswahl wird über das gecachte Bild gezeichnet, damit ein Klick nicht die ganze Minimap neu rendert.
      */
-    public Connection getConnection(Point2D point) {
-        List<Connection> connections = model.connections();
-        List<Node> nodes = model.nodes();
-
-        final double CLICK_TOLERANCE = 2.0;
-
-        for (Connection connection : connections) {
-            Node from = connection.from();
-            Node to = connection.to();
-
-            if (from.getSize().x() == 0 || to.getSize().x() == 0) continue;
-
-            Attribute fromAttr = from.getAttributes().get(connection.fromAttr());
-            int fromId = from.getAttributes().values().stream().toList().indexOf(fromAttr);
-
-            Attribute toAttr = to.getAttributes().get(connection.toAttr());
-            int toId = to.getAttributes().values().stream().toList().indexOf(toAttr);
-
-            int fromOff = -10 + (h * (fromId + 2) + (h / 2));
-            int toOff = -10 + (h * (toId + 2) + (h / 2));
-
-            Point2D fromPos = from.getPosition();
-            Point2D toPos = to.getPosition();
-            Vector2 fromSize = from.getSize();
-            Vector2 toSize = to.getSize();
-
-            ConnectionIconType fromType = connection.type().getTypeFrom(fromAttr.nullable());
-            ConnectionIconType toType = connection.type().getTypeTo(toAttr.nullable());
-
-            // === EXAKT die gleiche Side-Logik wie drawConnection ===
-            double fromLeftX = fromPos.getX();
-            double fromRightX = fromPos.getX() + fromSize.x();
-            double toLeftX = toPos.getX();
-            double toRightX = toPos.getX() + toSize.x();
-            boolean overlapX = fromLeftX - MARGIN < toRightX + MARGIN && fromRightX + MARGIN > toLeftX - MARGIN;
-
-            Side startSide, endSide;
-
-            if (overlapX) {
-                Side[] sides = chooseBestSidesForOverlap(
-                        from, to,
-                        fromPos, fromSize, fromOff,
-                        toPos, toSize, toOff,
-                        fromType, toType
-                );
-                startSide = sides[0];
-                endSide = sides[1];
-            } else {
-                startSide = (toPos.getX() + toSize.x() / 2.0 > fromPos.getX() + fromSize.x() / 2.0) ? Side.RIGHT : Side.LEFT;
-                endSide = (fromPos.getX() + fromSize.x() / 2.0 > toPos.getX() + toSize.x() / 2.0) ? Side.RIGHT : Side.LEFT;
-            }
-
-            Point2D startEdge = edgePoint(fromPos, fromSize, fromOff, startSide);
-            Point2D endEdge = edgePoint(toPos, toSize, toOff, endSide);
-
-            int dirStart = (startSide == Side.RIGHT) ? 1 : -1;
-            int dirEnd = (endSide == Side.RIGHT) ? 1 : -1;
-
-            // === WICHTIG: Hit-Test muss wie Zeichnen auf SYMBOL-Punkten basieren ===
-            Point2D startSymbol = offsetX(startEdge, dirStart * getSymbolOffset(fromType));
-            Point2D endSymbol = offsetX(endEdge, dirEnd * getSymbolOffset(toType));
-
-            List<Point2D> waypoints = calculateOrthogonalPath(
-                    startSymbol, endSymbol,
-                    from, to, fromPos, fromSize, toPos, toSize
-            );
-
-            for (int i = 0; i < waypoints.size() - 1; i++) {
-                Point2D p1 = waypoints.get(i);
-                Point2D p2 = waypoints.get(i + 1);
-
-                if (isPointNearLine(point, p1, p2, CLICK_TOLERANCE)) {
-                    return connection;
-                }
-            }
+    private void drawMinimapSelection(Graphics2D gWorld, double factor){
+        if (selected instanceof MultiSelection multiSelection){
+            scene.paintOverviewSelection(gWorld, factor, multiSelection.getNodes(), multiSelection.getConnections());
+            return;
         }
-
-        return null;
-    }
-
-
-    private boolean isPointNearLine(Point2D point, Point2D lineStart, Point2D lineEnd, double tolerance) {
-        double x = point.getX();
-        double y = point.getY();
-        double x1 = lineStart.getX();
-        double y1 = lineStart.getY();
-        double x2 = lineEnd.getX();
-        double y2 = lineEnd.getY();
-
-        double dx = x2 - x1;
-        double dy = y2 - y1;
-
-        if (dx == 0 && dy == 0) {
-            return point.distance(lineStart) <= tolerance;
+        if (selected instanceof Node node){
+            minimapSelectedNodes.add(node);
+        }else if (selected instanceof Connection connection){
+            minimapSelectedConnections.add(connection);
+        }else {
+            return;
         }
 
-        double t = ((x - x1) * dx + (y - y1) * dy) / (dx * dx + dy * dy);
-        t = Math.max(0, Math.min(1, t));
-
-        double nearestX = x1 + t * dx;
-        double nearestY = y1 + t * dy;
-
-        double distance = Math.sqrt((x - nearestX) * (x - nearestX) + (y - nearestY) * (y - nearestY));
-
-        return distance <= tolerance;
+        try {
+            scene.paintOverviewSelection(gWorld, factor, minimapSelectedNodes, minimapSelectedConnections);
+        }finally {
+            minimapSelectedNodes.clear();
+            minimapSelectedConnections.clear();
+        }
     }
 
-    private static final double MARGIN = 20.0; // Abstand zu Nodes beim Ausweichen
+    /**
+     * Findet die Connection unter einem bestimmten Punkt
+     */
+    public Connection getConnection(Point2D point) {
+        final double CLICK_TOLERANCE = 2.0;
+        return routeCache.connectionAt(point.getX(), point.getY(), CLICK_TOLERANCE);
+    }
 
     public enum ConnectionIconType {
         ONE,
@@ -1062,206 +1290,6 @@ public class ErdCanvas extends JComponent {
         NONE, MANY_ZERO
     }
 
-    public void drawSimpleConnection(Node from, Node to, Graphics2D g2,
-                                     int fromOff, int toOff, double factor,
-                                     boolean selected) {
-
-        Point2D fromPos = from.getPosition();
-        Vector2 fromSize = from.getSize();
-        Point2D toPos = to.getPosition();
-        Vector2 toSize = to.getSize();
-
-        // X-Overlap?
-        double fromLeftX = fromPos.getX();
-        double fromRightX = fromPos.getX() + fromSize.x();
-        double toLeftX = toPos.getX();
-        double toRightX = toPos.getX() + toSize.x();
-        boolean overlapX = fromLeftX - MARGIN < toRightX + MARGIN && fromRightX + MARGIN > toLeftX - MARGIN;
-
-        Side startSide, endSide;
-
-        if (overlapX) {
-            // Falls deine chooseBestSidesForOverlap Typen braucht, nimm hier
-            // “irgendeinen” neutralen Typ, der keine Offsets verursacht.
-            // Wenn du KEIN ConnectionIconType.NONE hast, ersetze es mit einem,
-            // der bei getSymbolOffset(...) 0 ergibt.
-            Side[] sides = chooseBestSidesForOverlap(
-                    from, to,
-                    fromPos, fromSize, fromOff,
-                    toPos, toSize, toOff,
-                    ConnectionIconType.NONE, ConnectionIconType.NONE
-            );
-            startSide = sides[0];
-            endSide = sides[1];
-        } else {
-            startSide = (toPos.getX() + toSize.x() / 2.0 > fromPos.getX() + fromSize.x() / 2.0) ? Side.RIGHT : Side.LEFT;
-            endSide   = (fromPos.getX() + fromSize.x() / 2.0 > toPos.getX() + toSize.x() / 2.0) ? Side.RIGHT : Side.LEFT;
-        }
-
-        Point2D startEdge = edgePoint(fromPos, fromSize, fromOff, startSide);
-        Point2D endEdge   = edgePoint(toPos, toSize, toOff, endSide);
-
-        int dirStart = (startSide == Side.RIGHT) ? 1 : -1;
-        int dirEnd   = (endSide == Side.RIGHT) ? 1 : -1;
-
-        // Wichtig: auch ohne Symbole ein kleines Stück aus der Box raus,
-        // sonst wird der Anfang/Ende gerne von der Node übermalt bzw. Path degeneriert.
-        final double EXIT = 8.0;
-
-        Point2D startOut = offsetX(startEdge, dirStart * EXIT);
-        Point2D endOut   = offsetX(endEdge,   dirEnd   * EXIT);
-
-        List<Point2D> waypoints = calculateOrthogonalPath(
-                startOut, endOut,
-                from, to, fromPos, fromSize, toPos, toSize
-        );
-
-        g2.setStroke(new BasicStroke((float) (selected ? 2f/factor : 1f/factor)));
-        g2.setColor(selected ? JBColor.GREEN : new JBColor(Color.YELLOW,Color.YELLOW));
-
-        // Stub von Node-Kante raus
-        g2.draw(new Line2D.Double(startEdge, startOut));
-
-        // Hauptlinie
-        for (int i = 0; i < waypoints.size() - 1; i++) {
-            Point2D p1 = waypoints.get(i);
-            Point2D p2 = waypoints.get(i + 1);
-            g2.draw(new Line2D.Double(p1, p2));
-        }
-
-        // Stub rein zur Node-Kante
-        g2.draw(new Line2D.Double(endOut, endEdge));
-    }
-
-
-
-    public void drawConnection(Node from, Node to, Graphics2D g2,
-                               int fromOff, int toOff,
-                               boolean hovered, boolean isSelected,
-                               ConnectionIconType fromType, ConnectionIconType toType) {
-
-        Point2D fromPos = from.getPosition();
-        Vector2 fromSize = from.getSize();
-        Point2D toPos = to.getPosition();
-        Vector2 toSize = to.getSize();
-
-// X-Overlap?
-        double fromLeftX = fromPos.getX();
-        double fromRightX = fromPos.getX() + fromSize.x();
-        double toLeftX = toPos.getX();
-        double toRightX = toPos.getX() + toSize.x();
-        boolean overlapX = fromLeftX - MARGIN < toRightX + MARGIN && fromRightX + MARGIN > toLeftX - MARGIN;
-
-        Side startSide, endSide;
-
-        if (overlapX){
-            Side[] sides = chooseBestSidesForOverlap(
-                    from, to,
-                    fromPos, fromSize, fromOff,
-                    toPos, toSize, toOff,
-                    fromType, toType
-            );
-            startSide = sides[0];
-            endSide = sides[1];
-        } else {
-            // normal: Richtung zum Target-Center
-            startSide = (toPos.getX() + toSize.x() / 2.0 > fromPos.getX() + fromSize.x() / 2.0) ? Side.RIGHT : Side.LEFT;
-            endSide   = (fromPos.getX() + fromSize.x() / 2.0 > toPos.getX() + toSize.x() / 2.0) ? Side.RIGHT : Side.LEFT;
-        }
-
-        Point2D startEdge = edgePoint(fromPos, fromSize, fromOff, startSide);
-        Point2D endEdge = edgePoint(toPos, toSize, toOff, endSide);
-
-        int dirStart = (startSide == Side.RIGHT) ? 1 : -1;
-        int dirEnd = (endSide == Side.RIGHT) ? 1 : -1;
-
-
-        // Punkte wo die Linie "enden" soll: beim | / O
-        Point2D startSymbol = offsetX(startEdge, dirStart * getSymbolOffset(fromType));
-        Point2D endSymbol = offsetX(endEdge, dirEnd * getSymbolOffset(toType));
-
-        // Route zwischen den Symbolpunkten berechnen (nicht bis zur Node-Kante)
-        List<Point2D> waypoints = calculateOrthogonalPath(
-                startSymbol, endSymbol, from, to, fromPos, fromSize, toPos, toSize
-        );
-
-        g2.setStroke(new BasicStroke(1.5f));
-        g2.setColor(isSelected ? JBColor.RED.darker() : hovered ? JBColor.GREEN.darker() : JBColor.BLACK);
-
-        // Hauptlinie zeichnen (endet beim Symbol)
-        for (int i = 0; i < waypoints.size() - 1; i++) {
-            Point2D p1 = waypoints.get(i);
-            Point2D p2 = waypoints.get(i + 1);
-            g2.draw(new Line2D.Double(p1, p2));
-        }
-
-        // End-Dekos: Node-Kante -> Symbol + Symbol selbst
-        drawEndDecoration(g2, startEdge, startSymbol, toType, dirStart);
-        drawEndDecoration(g2, endEdge, endSymbol, fromType, dirEnd);
-    }
-
-    private static Point2D offsetX(Point2D p, double dx){
-        return new Point2D.Double(p.getX() + dx, p.getY());
-    }
-
-    private int getSymbolOffset(ConnectionIconType type){
-        // Abstand von Node-Kante bis |/O
-        // (bei MANY_* ist |/O der "Tip", wo der Crowfoot hinläuft)
-        return 10;
-    }
-
-    private void drawEndDecoration(Graphics2D g2, Point2D edge, Point2D symbol, ConnectionIconType type, int dir){
-        if (type == null) return;
-
-        int y = (int) Math.round(edge.getY());
-
-        // Viele: Crowfoot von Node-Kante zum |/O (symbol)
-        if (type == ConnectionIconType.MANY_ONE || type == ConnectionIconType.MANY_ZERO){
-            drawCrowFootFromEdgeToSymbol(g2, edge, symbol, dir);
-        } else {
-            // One/Zero: kleiner Stub von Node-Kante zum Symbol
-            g2.draw(new Line2D.Double(edge, symbol));
-        }
-
-        // Jetzt | oder O am Symbol zeichnen
-        switch (type){
-            case ONE, MANY_ONE -> drawOneBar(g2, (int)Math.round(symbol.getX()), y, 6);
-            case ZERO, MANY_ZERO -> drawZeroCircle(g2, (int)Math.round(symbol.getX()), y, 4);
-            default -> {}
-        }
-    }
-
-    private void drawOneBar(Graphics2D g2, int x, int y, int halfH){
-        g2.drawLine(x, y - halfH, x, y + halfH);
-    }
-
-    private void drawZeroCircle(Graphics2D g2, int x, int y, int r){
-        g2.drawOval(x - r, y - r, r * 2, r * 2);
-    }
-
-    /**
-     * Crowfoot startet an der Node-Kante (edge) und "läuft" zum |/O (symbol).
-     * Das sind genau die zwei 45° Linien.
-     */
-    private void drawCrowFootFromEdgeToSymbol(Graphics2D g2, Point2D edge, Point2D symbol, int dir){
-        int halfH = 6;
-
-        int xEdge = (int) Math.round(edge.getX());
-        int y = (int) Math.round(edge.getY());
-
-        int xTip = (int) Math.round(symbol.getX());
-        int yTip = y;
-
-        // 1) mittlere Linie (Stamm) von Node-Kante zum Tip (damit es 3 Striche sind)
-        g2.drawLine(xEdge, y, xTip, yTip);
-
-        // 2) zwei 45°-Linien: Öffnung an der Node, Spitze am Tip
-        g2.drawLine(xEdge, y - halfH, xTip, yTip);
-        g2.drawLine(xEdge, y + halfH, xTip, yTip);
-    }
-
-
-
     private boolean isOnRightEdge(Point2D p, Point2D nodePos, Vector2 nodeSize){
         double rightX = nodePos.getX() + nodeSize.x();
         double leftX = nodePos.getX();
@@ -1298,81 +1326,6 @@ public class ErdCanvas extends JComponent {
         }
     }
 
-    /**
-     * Berechnet orthogonale Wegpunkte zwischen Start und Ziel
-     */
-    private List<Point2D> calculateOrthogonalPath(Point2D start, Point2D end,
-                                                  Node from, Node to,
-                                                  Point2D fromPos, Vector2 fromSize,
-                                                  Point2D toPos, Vector2 toSize) {
-        List<Point2D> waypoints = new ArrayList<>();
-        waypoints.add(start);
-
-        double startX = start.getX();
-        double startY = start.getY();
-        double endX = end.getX();
-        double endY = end.getY();
-
-        // Prüfe ob direkte horizontale Linie möglich ist
-        if (Math.abs(startY - endY) < 1.0) {
-            // Horizontale Linie
-            waypoints.add(end);
-            return waypoints;
-        }
-
-        // Berechne erweiterte Rechtecke für Kollisionserkennung
-        Rectangle2D fromRect = new Rectangle2D.Double(
-                fromPos.getX() - MARGIN,
-                fromPos.getY() - MARGIN,
-                fromSize.x() + 2 * MARGIN,
-                fromSize.y() + 2 * MARGIN
-        );
-
-        Rectangle2D toRect = new Rectangle2D.Double(
-                toPos.getX() - MARGIN,
-                toPos.getY() - MARGIN,
-                toSize.x() + 2 * MARGIN,
-                toSize.y() + 2 * MARGIN
-        );
-
-        // Standard: Horizontale Linie vom Start, dann vertikal, dann horizontal zum Ziel
-        double midX = (startX + endX) / 2;
-
-        // Prüfe ob Mittellinie die Nodes schneidet und weiche aus
-        if (intersectsVerticalLine(fromRect, midX) ||
-                intersectsVerticalLine(toRect, midX)) {
-
-            // Bestimme Ausweichrichtung basierend auf Startrichtung
-            boolean startsRight = startX > fromPos.getX() + fromSize.x() / 2;
-
-            if (startsRight) {
-                // Von rechts kommend - weiche rechts aus
-                midX = Math.max(
-                        fromPos.getX() + fromSize.x() + MARGIN,
-                        toPos.getX() + toSize.x() + MARGIN
-                );
-            } else {
-                // Von links kommend - weiche links aus
-                midX = Math.min(
-                        fromPos.getX() - MARGIN,
-                        toPos.getX() - MARGIN
-                );
-            }
-        }
-
-        // Füge Wegpunkte hinzu: horizontal -> vertikal -> horizontal
-        waypoints.add(new Point2D.Double(midX, startY));
-        waypoints.add(new Point2D.Double(midX, endY));
-        waypoints.add(end);
-
-        return waypoints;
-    }
-
-    private boolean intersectsVerticalLine(Rectangle2D rect, double x) {
-        return x >= rect.getMinX() && x <= rect.getMaxX();
-    }
-
-
     private Point2D screenToWorld(Point point) {
         return screenToWorld(point, view.zoom);
     }
@@ -4,6 +4,10 @@ import com.intellij.icons.AllIcons;
 import com.intellij.openapi.actionSystem.*;
 import com.intellij.openapi.application.ApplicationManager;
 import com.intellij.openapi.application.ModalityState;
+import com.intellij.openapi.command.CommandProcessor;
+import com.intellij.openapi.command.undo.BasicUndoableAction;
+import com.intellij.openapi.command.undo.UndoManager;
+import com.intellij.openapi.command.undo.UnexpectedUndoException;
 import com.intellij.openapi.project.Project;
 import com.intellij.openapi.ui.InputValidator;
 import com.intellij.openapi.ui.InputValidatorEx;
@@ -15,8 +19,10 @@ import com.intellij.ui.JBColor;
 import icons.DatabaseIcons;
 import net.villagerzock.erdplugin.ErdIcons;
 import net.villagerzock.erdplugin.node.Attribute;
+import net.villagerzock.erdplugin.node.GraphChange;
 import net.villagerzock.erdplugin.node.Node;
 import net.villagerzock.erdplugin.node.NodeGraph;
+import net.villagerzock.erdplugin.node.NodeGraphSnapshot;
 import net.villagerzock.erdplugin.ui.builder.BuiltDialog;
 import net.villagerzock.erdplugin.util.Vector2;
 import org.jetbrains.annotations.NonNls;
@@ -35,8 +41,10 @@ import java.io.IOException;
 import java.nio.file.Path;
 import java.util.HashMap;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BooleanSupplier;
 
 public class ErdEditorPanel extends JPanel {
 
@@ -44,6 +52,9 @@ public class ErdEditorPanel extends JPanel {
     private final VirtualFile file;
 
     private final NodeGraph model;
+    private final ErdUndoRecorder undoRecorder;
+    // Änderungen aus einem liegengebliebenen Journal wurden eingespielt, sind aber noch nicht in der Datei
+    private final boolean recovered;
     private final ErdViewState viewState;
     private final ErdSelectionState selectionState;
 
@@ -57,7 +68,9 @@ public class ErdEditorPanel extends JPanel {
         this.file = file;
 
         this.model = ErdIo.loadOrEmpty(file);
-        this.model.setChanged(this::changed);
+        this.recovered = ErdJournal.recover(file, model);
+        this.undoRecorder = new ErdUndoRecorder(model, this);
+        this.model.addChangeListener(this::graphChanged);
         this.viewState = new ErdViewState();
         this.selectionState = new ErdSelectionState();
 
@@ -100,8 +113,9 @@ public class ErdEditorPanel extends JPanel {
                 }
                 Map<String, Attribute> attributeMap = new LinkedHashMap<>();
                 attributeMap.put("id",new Attribute("id","INT",true,false,false,true,""));
-                model.nodes().add(new Node(new Point2D.Double(-viewState.panX / viewState.zoom,-viewState.panY / viewState.zoom), newName, attributeMap, new Vector2(0,0), ErdEditorPanel.this::changed));
-                changed();
+                beginEdit();
+                model.addNode(new Node(new Point2D.Double(-viewState.panX / viewState.zoom,-viewState.panY / viewState.zoom), newName, attributeMap, new Vector2(0,0)));
+                endEdit("Create Table");
             }
         };
 
@@ -167,7 +181,7 @@ public class ErdEditorPanel extends JPanel {
                 int mul = dialog.getValue("Multiplier",Integer.class);
 
                 try {
-                    canvas.exportAsPng(path.toFile(),fileType,mul);
+                    canvas.exportAsPng(project,path.toFile(),fileType,mul);
                 } catch (IOException e) {
                     throw new RuntimeException(e);
                 }
@@ -177,7 +191,62 @@ public class ErdEditorPanel extends JPanel {
         AnAction formatDiagram = new AnAction("Format Diagram","",AllIcons.Actions.ReformatCode) {
             @Override
             public void actionPerformed(@NotNull AnActionEvent anActionEvent) {
-                model.repositionNodesForConnections();
+                if (formatting) return;
+                formatting = true;
+                new FormatDiagramTask(project, model, ErdEditorPanel.this, canvas).queue();
+            }
+
+            @Override
+            public void update(@NotNull AnActionEvent e) {
+                e.getPresentation().setEnabled(!formatting);
+            }
+
+            @Override
+            public @NotNull ActionUpdateThread getActionUpdateThread() {
+                return ActionUpdateThread.EDT;
+            }
+        };
+
+        AnAction convertEncoding = new AnAction("Convert File Format", "", AllIcons.Actions.Refresh) {
+            @Override
+            public void actionPerformed(@NotNull AnActionEvent anActionEvent) {
+                ErdIo.Encoding target = ErdIo.getEncoding(file) == ErdIo.Encoding.BINARY ? ErdIo.Encoding.JSON : ErdIo.Encoding.BINARY;
+                ErdIo.setEncoding(file, target);
+                changed();
+            }
+
+            @Override
+            public void update(@NotNull AnActionEvent e) {
+                e.getPresentation().setText(ErdIo.getEncoding(file) == ErdIo.Encoding.BINARY ? "Convert to Json Format" : "Convert to Binary Format");
+            }
+
+            @Override
+            public @NotNull ActionUpdateThread getActionUpdateThread() {
+                return ActionUpdateThread.EDT;
+            }
+        };
+
+        AnAction journalMode = new ToggleAction("Edit Journal", "Append edits to a journal next to the file and merge them in when idle", AllIcons.Vcs.History) {
+            @Override
+            public boolean isSelected(@NotNull AnActionEvent anActionEvent) {
+                return ErdJournal.isEnabled();
+            }
+
+            @Override
+            public void setSelected(@NotNull AnActionEvent anActionEvent, boolean state) {
+                ErdJournal.setEnabled(state);
+                changed();
+            }
+
+            @Override
+            public void update(@NotNull AnActionEvent e) {
+                super.update(e);
+                e.getPresentation().setEnabled(ErdJournal.isSupported(file));
+            }
+
+            @Override
+            public @NotNull ActionUpdateThread getActionUpdateThread() {
+                return ActionUpdateThread.EDT;
             }
         };
 
@@ -205,6 +274,8 @@ public class ErdEditorPanel extends JPanel {
         actionGroup.add(exportSql);
         actionGroup.add(exportAsImage);
         actionGroup.add(formatDiagram);
+        actionGroup.add(convertEncoding);
+        actionGroup.add(journalMode);
         actionGroup.addSeparator();
         actionGroup.add(zoomIn);
         actionGroup.add(zoomOut);
@@ -215,6 +286,18 @@ public class ErdEditorPanel extends JPanel {
         return toolbar.getComponent();
     }
 
+    public NodeGraph getModel() {
+        return model;
+    }
+
+    public boolean isRecovered() {
+        return recovered;
+    }
+
+    public NodeGraphSnapshot snapshot() {
+        return NodeGraphSnapshot.of(model);
+    }
+
     public boolean save() {
         try {
             ErdIo.save(file, model);
@@ -225,20 +308,88 @@ public class ErdEditorPanel extends JPanel {
     }
 
     public void dispose() {
-
+        canvas.dispose();
     }
 
     public @Nullable JComponent getPreferredFocusComponent() {
         return this.canvas;
     }
 
+    private static final String TRIMMED_HISTORY = "This part of the diagram's undo history was dropped to save memory.";
+
     private Runnable onAnyChange;
+    private boolean formatting = false;
+
+    void setFormatting(boolean formatting) {
+        this.formatting = formatting;
+    }
+
+    /**
+     * Solange formatiert wird dürfen Nodes nicht verschoben / gelöscht werden, die Vorschau überschreibt sonst die Positionen.
+     */
+    boolean isFormatting() {
+        return formatting;
+    }
+
+    /**
+     * Als eine Transaktion anwenden, aber ohne Undo-Schritt.
+     */
+    void applyUntracked(Runnable runnable) {
+        undoRecorder.untracked(() -> model.batch(runnable));
+    }
+
+    /**
+     * Registriert eine bereits ausgeführte Änderung bei IntelliJs UndoManager, damit Ctrl+Z im ERD Editor funktioniert.
+     * Liefert {@code available} false (Schritt wurde verworfen), meldet Undo / Redo einen Fehler statt nichts zu tun.
+     */
+    public void undoableChange(String name, Runnable undo, Runnable redo, BooleanSupplier available) {
+        CommandProcessor.getInstance().executeCommand(project, () ->
+                UndoManager.getInstance(project).undoableActionPerformed(new BasicUndoableAction(file) {
+                    @Override
+                    public void undo() throws UnexpectedUndoException {
+                        if (!available.getAsBoolean()) throw new UnexpectedUndoException(TRIMMED_HISTORY);
+                        model.batch(undo);
+                        canvas.repaint();
+                    }
+
+                    @Override
+                    public void redo() throws UnexpectedUndoException {
+                        if (!available.getAsBoolean()) throw new UnexpectedUndoException(TRIMMED_HISTORY);
+                        model.batch(redo);
+                        canvas.repaint();
+                    }
+                }), name, null);
+    }
+
+    /**
+     * Alle Änderungen bis {@link #endEdit(String)} werden ein Undo-Schritt und eine Transaktion im Graph,
+     * gemeldet wird also erst am Ende.
+     */
+    void beginEdit() {
+        undoRecorder.begin();
+        model.beginBatch();
+    }
+
+    void endEdit(String name) {
+        undoRecorder.end(name);
+        model.endBatch();
+    }
 
     public void setOnAnyChange(Runnable r) {
         this.onAnyChange = r;
     }
 
+    private void graphChanged(List<GraphChange> changes) {
+        for (GraphChange change : changes) {
+            if (change.isContentChange()) {
+                changed();
+                return;
+            }
+        }
+    }
+
     public void changed() {
+        undoRecorder.changed();
         if (onAnyChange != null) onAnyChange.run();
     }
 }
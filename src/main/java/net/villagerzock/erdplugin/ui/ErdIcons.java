@@ -0,0 +1,91 @@
+package net.villagerzock.erdplugin.ui;
+
+import icons.DatabaseIcons;
+
+import javax.swing.*;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+
+/**
+ * Icons die {@link ErdScene} zeichnet: Tabelle und die vier Spalten-Varianten (PK / FK).
+ * Im Editor die Icons der Plattform, für den Bild-Export vorab auf dem aufrufenden Thread in Bilder gerendert,
+ * damit die Worker weder Swing-Komponenten noch den Icon-Loader anfassen.
+ */
+final class ErdIcons {
+    static final ErdIcons PLATFORM = new ErdIcons(
+            DatabaseIcons.Table, DatabaseIcons.Col, DatabaseIcons.ColGoldKey, DatabaseIcons.ColBlueKey, DatabaseIcons.ColGoldBlueKey
+    );
+
+    private final Icon table;
+    private final Icon column;
+    private final Icon primaryKey;
+    private final Icon foreignKey;
+    private final Icon primaryForeignKey;
+
+    private ErdIcons(Icon table, Icon column, Icon primaryKey, Icon foreignKey, Icon primaryForeignKey) {
+        this.table = table;
+        this.column = column;
+        this.primaryKey = primaryKey;
+        this.foreignKey = foreignKey;
+        this.primaryForeignKey = primaryForeignKey;
+    }
+
+    /**
+     * Die Plattform-Icons als Bilder mit {@code scale} Pixeln pro World-Einheit, bei der Bild-Ausgabe also scharf.
+     * Muss auf dem EDT (bzw. dem Thread der {@code component} besitzt) aufgerufen werden.
+     */
+    static ErdIcons rendered(Component component, double scale) {
+        return new ErdIcons(
+                render(PLATFORM.table, component, scale),
+                render(PLATFORM.column, component, scale),
+                render(PLATFORM.primaryKey, component, scale),
+                render(PLATFORM.foreignKey, component, scale),
+                render(PLATFORM.primaryForeignKey, component, scale)
+        );
+    }
+
+    Icon table() {
+        return table;
+    }
+
+    Icon column(boolean isPrimaryKey, boolean isForeignKey) {
+        if (isPrimaryKey) return isForeignKey ? primaryForeignKey : primaryKey;
+        return isForeignKey ? foreignKey : column;
+    }
+
+    private static Icon render(Icon icon, Component component, double scale) {
+        int w = icon.getIconWidth();
+        int h = icon.getIconHeight();
+        BufferedImage image = new BufferedImage(
+                Math.max(1, (int) Math.ceil(w * scale)), Math.max(1, (int) Math.ceil(h * scale)), BufferedImage.TYPE_INT_ARGB
+        );
+        Graphics2D g = image.createGraphics();
+        try {
+            g.scale(scale, scale);
+            icon.paintIcon(component, g, 0, 0);
+        } finally {
+            g.dispose();
+        }
+        return new RenderedIcon(image, w, h);
+    }
+
+    /**
+     * Fertiges Bild, wird in der Icon-Größe (World-Einheiten) gezeichnet, die Komponente wird ignoriert.
+     */
+    private record RenderedIcon(BufferedImage image, int width, int height) implements Icon {
+        @Override
+        public void paintIcon(Component c, Graphics g, int x, int y) {
+            g.drawImage(image, x, y, width, height, null);
+        }
+
+        @Override
+        public int getIconWidth() {
+            return width;
+        }
+
+        @Override
+        public int getIconHeight() {
+            return height;
+        }
+    }
+}
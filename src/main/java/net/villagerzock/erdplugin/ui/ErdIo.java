@@ -1,160 +1,447 @@
 package net.villagerzock.erdplugin.ui;
 
-import com.google.gson.*;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
 import com.intellij.openapi.application.ApplicationManager;
-import com.intellij.openapi.vfs.VfsUtil;
+import com.intellij.openapi.util.Key;
+import com.intellij.openapi.util.io.BufferExposingByteArrayOutputStream;
 import com.intellij.openapi.vfs.VirtualFile;
 import net.villagerzock.erdplugin.node.Attribute;
 import net.villagerzock.erdplugin.node.Node;
 import net.villagerzock.erdplugin.node.NodeGraph;
+import net.villagerzock.erdplugin.node.NodeGraphSnapshot;
 import net.villagerzock.erdplugin.util.Vector2;
 
 import java.awt.geom.Point2D;
-import java.io.IOException;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.*;
 
+/**
+ * Liest / schreibt .erd Dateien. Arbeitet direkt zwischen Stream und Nodes / Connections (JsonReader / JsonWriter),
+ * ohne den ganzen Json-Baum oder die ganze Datei als String im Speicher zu halten.
+ * <p>
+ * Neben Json gibt es eine kompakte binäre Kodierung ({@link ErdBinaryFormat}), welche eine Datei nutzt wird beim Laden
+ * erkannt und beim Speichern beibehalten.
+ */
 public class ErdIo {
-    public static final String LATEST_VERSION = "1";
-    private static final Gson gson = new GsonBuilder().setPrettyPrinting().create();
-    public static NodeGraph loadOrEmpty(VirtualFile file) {
+    /**
+     * 1: Json ohne Kodierungs-Angabe, 2: {@code meta.encoding} ist gesetzt ("json" oder "binary"),
+     * 3: Nodes haben eine stabile {@code id}, Connections verweisen darüber statt über den Index.
+     */
+    public static final String LATEST_VERSION = "3";
+
+    /**
+     * Ab dieser Version verweisen Connections per Node-Id.
+     */
+    static final int FIRST_VERSION_WITH_IDS = 3;
+
+    static int parseVersion(String version) {
         try {
-            JsonObject object = gson.fromJson(new String(file.getInputStream().readAllBytes()), JsonObject.class);
-
-            JsonObject meta = ErdIo.getOrDefault(object,"meta",new JsonObject());
+            return Integer.parseInt(version);
+        } catch (NumberFormatException e) {
+            return 1;
+        }
+    }
 
-            JsonArray nodesArray = object.getAsJsonArray("nodes");
+    public enum Encoding {
+        JSON("json"),
+        BINARY("binary");
 
-            List<Node> nodes = new ArrayList<>();
-            for (JsonElement element : nodesArray){
-                if (!(element instanceof JsonObject nodeObject)) continue;
+        private final String id;
 
-                JsonArray positionObject = nodeObject.getAsJsonArray("position");
-                Point2D position = new Point2D.Double(positionObject.get(0).getAsDouble(),positionObject.get(1).getAsDouble());
+        Encoding(String id) {
+            this.id = id;
+        }
 
-                String name = nodeObject.get("name").getAsString();
+        public String getId() {
+            return id;
+        }
+    }
 
-                JsonObject attributes = nodeObject.getAsJsonObject("attributes");
+    /**
+     * Kodierung mit der die Datei zuletzt gelesen / geschrieben wurde.
+     */
+    private static final Key<Encoding> ENCODING = Key.create("erd.encoding");
 
-                Map<String, Attribute> attributeMap = new LinkedHashMap<>();
+    public static Encoding getEncoding(VirtualFile file) {
+        Encoding encoding = file.getUserData(ENCODING);
+        return encoding == null ? Encoding.JSON : encoding;
+    }
 
-                for (Map.Entry<String, JsonElement> attribute : attributes.entrySet()){
+    public static void setEncoding(VirtualFile file, Encoding encoding) {
+        file.putUserData(ENCODING, encoding);
+    }
 
-                    JsonObject attributeObject = attribute.getValue().getAsJsonObject();
+    public static NodeGraph loadOrEmpty(VirtualFile file) {
+        try {
+            return load(file);
+        } catch (Throwable e) {
+            System.err.println("Failed to read File: " + file.getName() + " creating new Diagram");
+            e.printStackTrace();
+            return new NodeGraph(file);
+        }
+    }
 
+    public static NodeGraph load(VirtualFile file) throws IOException {
+        if (ErdBinaryFormat.isBinary(file)) {
+            NodeGraph graph = ErdBinaryFormat.read(ErdBinaryFormat.map(file), file);
+            setEncoding(file, Encoding.BINARY);
+            return graph;
+        }
+        try (InputStream in = file.getInputStream()) {
+            NodeGraph graph = read(in, file);
+            setEncoding(file, Encoding.JSON);
+            return graph;
+        }
+    }
 
-                    String sqlType = attributeObject.get("type").getAsString();
-                    boolean primaryKey = attributeObject.get("primaryKey").getAsBoolean();
-                    boolean nullable = attributeObject.get("nullable").getAsBoolean();
-                    boolean unique = attributeObject.get("unique").getAsBoolean();
-                    boolean autoIncrement = attributeObject.get("autoIncrement").getAsBoolean();
-                    String defaultValue = attributeObject.has("default") ? attributeObject.get("default").getAsString() : "";
+    /**
+     * Connection wie sie in der Datei steht, aufgelöst wird erst wenn alle Nodes gelesen sind
+     * (die Reihenfolge der Keys im Json ist nicht garantiert).
+     */
+    private record ConnectionRecord(int from, String fromAttr, int to, String toAttr, NodeGraph.ConnectionType type) {
+    }
 
-                    attributeMap.put(attribute.getKey(), new Attribute(attribute.getKey(),sqlType,primaryKey,nullable,unique,autoIncrement,defaultValue));
+    public static NodeGraph read(InputStream in, VirtualFile file) throws IOException {
+        JsonReader reader = new JsonReader(new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8)));
+
+        List<Node> nodes = new ArrayList<>();
+        List<ConnectionRecord> records = new ArrayList<>();
+        String version = "1";
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            switch (reader.nextName()) {
+                case "meta" -> version = readMeta(reader);
+                case "nodes" -> {
+                    reader.beginArray();
+                    while (reader.hasNext()) {
+                        if (reader.peek() != JsonToken.BEGIN_OBJECT) {
+                            reader.skipValue();
+                            continue;
+                        }
+                        nodes.add(readNode(reader));
+                    }
+                    reader.endArray();
                 }
-
-                nodes.add(new Node(position,name,attributeMap,new Vector2(0,0),null));
+                case "connections" -> {
+                    reader.beginArray();
+                    while (reader.hasNext()) {
+                        if (reader.peek() != JsonToken.BEGIN_OBJECT) {
+                            reader.skipValue();
+                            continue;
+                        }
+                        records.add(readConnection(reader));
+                    }
+                    reader.endArray();
+                }
+                default -> reader.skipValue();
             }
+        }
+        reader.endObject();
 
-            JsonArray connectionsArray = object.getAsJsonArray("connections");
+        // ältere Dateien verweisen über den Index
+        Map<Integer, Node> byId = new HashMap<>(nodes.size() * 2);
+        if (parseVersion(version) >= FIRST_VERSION_WITH_IDS) {
+            for (Node node : nodes) {
+                byId.putIfAbsent(node.getId(), node);
+            }
+        } else {
+            for (int i = 0; i < nodes.size(); i++) {
+                byId.put(i, nodes.get(i));
+            }
+        }
 
-            List<NodeGraph.Connection> connections = new ArrayList<>();
+        List<NodeGraph.Connection> connections = new ArrayList<>(records.size());
+        for (ConnectionRecord record : records) {
+            Node from = byId.get(record.from());
+            Node to = byId.get(record.to());
+            if (from == null || to == null) continue;
+            if (!from.getAttributes().containsKey(record.fromAttr()) || !to.getAttributes().containsKey(record.toAttr())) continue;
 
-            for (JsonElement connection : connectionsArray){
-                if (!(connection instanceof JsonObject connectionObject)) continue;
+            connections.add(new NodeGraph.Connection(from, record.fromAttr(), to, record.toAttr(), record.type()));
+        }
 
-                int from = connectionObject.get("from").getAsInt();;
-                String fromAttr = connectionObject.get("fromAttr").getAsString();
-                int to = connectionObject.get("to").getAsInt();;
-                String toAttr = connectionObject.get("toAttr").getAsString();
-                NodeGraph.ConnectionType type = NodeGraph.ConnectionType.valueOf(connectionObject.get("type").getAsString());
+        return new NodeGraph(connections, nodes, file);
+    }
 
-                if (!nodes.get(from).getAttributes().containsKey(fromAttr) || !nodes.get(to).getAttributes().containsKey(toAttr)) continue;
+    private static String readMeta(JsonReader reader) throws IOException {
+        String version = "1";
+        if (reader.peek() != JsonToken.BEGIN_OBJECT) {
+            reader.skipValue();
+            return version;
+        }
+        reader.beginObject();
+        while (reader.hasNext()) {
+            if (reader.nextName().equals("version")) {
+                version = readString(reader, "1");
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+        return version;
+    }
 
-                connections.add(new NodeGraph.Connection(nodes.get(from),fromAttr,nodes.get(to),toAttr,type));
+    static Node readNode(JsonReader reader) throws IOException {
+        Point2D position = new Point2D.Double();
+        int id = 0;
+        String name = "";
+        Map<String, Attribute> attributeMap = new LinkedHashMap<>();
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            switch (reader.nextName()) {
+                case "position" -> {
+                    reader.beginArray();
+                    double x = reader.nextDouble();
+                    double y = reader.nextDouble();
+                    while (reader.hasNext()) reader.skipValue();
+                    reader.endArray();
+                    position.setLocation(x, y);
+                }
+                case "id" -> id = reader.nextInt();
+                case "name" -> name = readString(reader, "");
+                case "attributes" -> {
+                    reader.beginObject();
+                    while (reader.hasNext()) {
+                        String attributeName = reader.nextName();
+                        attributeMap.put(attributeName, readAttribute(reader, attributeName));
+                    }
+                    reader.endObject();
+                }
+                default -> reader.skipValue();
             }
-            NodeGraph graph = new NodeGraph(connections,nodes,file);
-            for (Node node : nodes){
-                node.setChanged(graph.getChanged());
+        }
+        reader.endObject();
+
+        Node node = new Node(position, name, attributeMap, new Vector2(0, 0));
+        node.setId(id);
+        return node;
+    }
+
+    private static Attribute readAttribute(JsonReader reader, String name) throws IOException {
+        String sqlType = "";
+        boolean primaryKey = false;
+        boolean nullable = false;
+        boolean unique = false;
+        boolean autoIncrement = false;
+        String defaultValue = "";
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            switch (reader.nextName()) {
+                case "type" -> sqlType = readString(reader, "");
+                case "primaryKey" -> primaryKey = readBoolean(reader);
+                case "nullable" -> nullable = readBoolean(reader);
+                case "unique" -> unique = readBoolean(reader);
+                case "autoIncrement" -> autoIncrement = readBoolean(reader);
+                case "default" -> defaultValue = readString(reader, "");
+                default -> reader.skipValue();
             }
-            return graph;
-        } catch (Throwable e) {
-            System.err.println("Failed to read File: " + file.getName() + " creating new Diagram");
-            e.printStackTrace();
-            return new NodeGraph(file);
         }
+        reader.endObject();
+
+        return new Attribute(name, sqlType, primaryKey, nullable, unique, autoIncrement, defaultValue);
     }
 
-    private static <T> T getOrDefault(JsonObject object, String key, T defaultValue) {
-        Class<T> typeClass = (Class<T>) defaultValue.getClass();
+    private static ConnectionRecord readConnection(JsonReader reader) throws IOException {
+        int from = -1;
+        int to = -1;
+        String fromAttr = null;
+        String toAttr = null;
+        NodeGraph.ConnectionType type = NodeGraph.ConnectionType.OneToMany;
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            switch (reader.nextName()) {
+                case "from" -> from = reader.nextInt();
+                case "fromAttr" -> fromAttr = readString(reader, null);
+                case "to" -> to = reader.nextInt();
+                case "toAttr" -> toAttr = readString(reader, null);
+                case "type" -> type = NodeGraph.ConnectionType.valueOf(reader.nextString());
+                default -> reader.skipValue();
+            }
+        }
+        reader.endObject();
 
-        JsonElement element = object.get(key);
+        return new ConnectionRecord(from, fromAttr, to, toAttr, type);
+    }
 
-        return gson.fromJson(element, typeClass);
+    private static String readString(JsonReader reader, String defaultValue) throws IOException {
+        if (reader.peek() == JsonToken.NULL) {
+            reader.nextNull();
+            return defaultValue;
+        }
+        return reader.nextString();
     }
 
-    public static void save(VirtualFile file, NodeGraph graph){
+    private static boolean readBoolean(JsonReader reader) throws IOException {
+        return switch (reader.peek()) {
+            case BOOLEAN -> reader.nextBoolean();
+            case STRING -> Boolean.parseBoolean(reader.nextString());
+            case NULL -> {
+                reader.nextNull();
+                yield false;
+            }
+            default -> {
+                reader.skipValue();
+                yield false;
+            }
+        };
+    }
 
-        JsonObject root = new JsonObject();
+    private static void writeJson(OutputStream out, List<Node> nodes, List<NodeGraph.Connection> connections) throws IOException {
+        JsonWriter writer = new JsonWriter(new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8)));
+        writer.setIndent("  ");
 
+        writer.beginObject();
 
-        JsonObject metaObject = new JsonObject();
-        metaObject.addProperty("version",LATEST_VERSION);
-        // nodes
-        JsonArray nodesArray = new JsonArray();
-        for (Node node : graph.nodes()) {
-            JsonObject nodeObject = new JsonObject();
-
-            // position: [x, y]
-            JsonArray position = new JsonArray();
-            position.add(node.getPosition().getX());
-            position.add(node.getPosition().getY());
-            nodeObject.add("position", position);
-
-            // name
-            nodeObject.addProperty("name", node.getName());
-
-            // attributes
-            JsonObject attributes = new JsonObject();
-            for (Map.Entry<String, Attribute> entry : node.getAttributes().entrySet()) {
-                Attribute attr = entry.getValue();
-
-                JsonObject attrObject = new JsonObject();
-                attrObject.addProperty("type", attr.type());        // matches valueOf(...) on load
-                attrObject.addProperty("primaryKey", attr.primaryKey());
-                attrObject.addProperty("nullable", attr.nullable());
-                attrObject.addProperty("unique",attr.unique());
-                attrObject.addProperty("autoIncrement", attr.autoIncrement());
-                attrObject.addProperty("default", attr.defaultValue());
-
-                attributes.add(entry.getKey(), attrObject);
-            }
-            nodeObject.add("attributes", attributes);
+        writer.name("meta").beginObject();
+        writer.name("version").value(LATEST_VERSION);
+        writer.name("encoding").value(Encoding.JSON.getId());
+        writer.endObject();
 
-            nodesArray.add(nodeObject);
+        // nodes
+        writer.name("nodes").beginArray();
+        for (Node node : nodes) {
+            writeNode(writer, node);
         }
-        root.add("nodes", nodesArray);
+        writer.endArray();
 
         // connections
-        JsonArray connectionsArray = new JsonArray();
-        for (NodeGraph.Connection c : graph.connections()) {
-            JsonObject connectionObject = new JsonObject();
-            connectionObject.addProperty("from", graph.getIndexOf(c.from()));
-            connectionObject.addProperty("fromAttr", c.fromAttr());
-            connectionObject.addProperty("to", graph.getIndexOf(c.to()));
-            connectionObject.addProperty("toAttr", c.toAttr());
-            connectionObject.addProperty("type", c.type().name());          // matches valueOf(...) on load
-            connectionsArray.add(connectionObject);
-        }
-        root.add("connections", connectionsArray);
-
-        // write pretty (optional)
-        String jsonString = gson.toJson(root);
+        writer.name("connections").beginArray();
+        for (NodeGraph.Connection c : connections) {
+            writer.beginObject();
+            writer.name("from").value(c.from().getId());
+            writer.name("fromAttr").value(c.fromAttr());
+            writer.name("to").value(c.to().getId());
+            writer.name("toAttr").value(c.toAttr());
+            writer.name("type").value(c.type().name());
+            writer.endObject();
+        }
+        writer.endArray();
+
+        writer.endObject();
+        writer.flush();
+    }
+
+    static void writeNode(JsonWriter writer, Node node) throws IOException {
+        writer.beginObject();
+
+        writer.name("id").value(node.getId());
+
+        // position: [x, y]
+        writer.name("position").beginArray();
+        writer.value(node.getPosition().getX());
+        writer.value(node.getPosition().getY());
+        writer.endArray();
+
+        writer.name("name").value(node.getName());
+
+        writer.name("attributes").beginObject();
+        for (Map.Entry<String, Attribute> entry : node.getAttributes().entrySet()) {
+            Attribute attr = entry.getValue();
+
+            writer.name(entry.getKey()).beginObject();
+            writer.name("type").value(attr.type());
+            writer.name("primaryKey").value(attr.primaryKey());
+            writer.name("nullable").value(attr.nullable());
+            writer.name("unique").value(attr.unique());
+            writer.name("autoIncrement").value(attr.autoIncrement());
+            writer.name("default").value(attr.defaultValue());
+            writer.endObject();
+        }
+        writer.endObject();
+
+        writer.endObject();
+    }
+
+    private static void write(OutputStream out, List<Node> nodes, List<NodeGraph.Connection> connections, Encoding encoding) throws IOException {
+        switch (encoding) {
+            case JSON -> writeJson(out, nodes, connections);
+            case BINARY -> ErdBinaryFormat.write(out, nodes, connections);
+        }
+    }
+
+    public static void write(OutputStream out, NodeGraph graph, Encoding encoding) throws IOException {
+        write(out, graph.nodes(), graph.connections(), encoding);
+    }
+
+    /**
+     * Serialisiert einen Snapshot, darf daher auch außerhalb des EDT laufen. Der Hash wird beim Schreiben mitgerechnet.
+     */
+    public static Content serialize(NodeGraphSnapshot snapshot, Encoding encoding) throws IOException {
+        BufferExposingByteArrayOutputStream bytes = new BufferExposingByteArrayOutputStream();
+        MessageDigest digest = sha256();
+        try (OutputStream out = new DigestOutputStream(bytes, digest)) {
+            write(out, snapshot.nodes(), snapshot.connections(), encoding);
+        }
+        return new Content(bytes, HexFormat.of().formatHex(digest.digest()));
+    }
+
+    /**
+     * Schreibt direkt in den Stream der Datei, ohne Zwischenpuffer.
+     */
+    public static void save(VirtualFile file, NodeGraph graph){
+        Encoding encoding = getEncoding(file);
         ApplicationManager.getApplication().runWriteAction(()->{
-            try {
-                VfsUtil.saveText(file,jsonString);
+            try (OutputStream out = file.getOutputStream(ErdIo.class)) {
+                write(out, graph, encoding);
             }catch (IOException e){
-                throw new RuntimeException(e);
+                throw new UncheckedIOException(e);
             }
         });
     }
+
+    /**
+     * SHA-256 als Hex-String, um zu erkennen ob sich ein Inhalt geändert hat.
+     */
+    public static String hash(byte[] content) {
+        return HexFormat.of().formatHex(sha256().digest(content));
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Fertig serialisierter Inhalt samt {@link #hash}. Liegt genau einmal im Speicher, {@link #writeTo} reicht den
+     * internen Puffer direkt an die Datei weiter statt ihn erst zu kopieren.
+     */
+    public static final class Content {
+        private final BufferExposingByteArrayOutputStream bytes;
+        private final String hash;
+
+        private Content(BufferExposingByteArrayOutputStream bytes, String hash) {
+            this.bytes = bytes;
+            this.hash = hash;
+        }
+
+        public String hash() {
+            return hash;
+        }
+
+        /**
+         * Nur der eigentliche VFS-Schreibvorgang, läuft als Write Action (also auf dem EDT).
+         */
+        public void writeTo(VirtualFile file) {
+            ApplicationManager.getApplication().runWriteAction(()->{
+                try (OutputStream out = file.getOutputStream(ErdIo.class)) {
+                    out.write(bytes.getInternalBuffer(), 0, bytes.size());
+                }catch (IOException e){
+                    throw new RuntimeException(e);
+                }
+            });
+        }
+    }
 }
@@ -0,0 +1,387 @@
+package net.villagerzock.erdplugin.ui;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
+import com.intellij.ide.util.PropertiesComponent;
+import com.intellij.openapi.vfs.VirtualFile;
+import net.villagerzock.erdplugin.node.Attribute;
+import net.villagerzock.erdplugin.node.Node;
+import net.villagerzock.erdplugin.node.NodeGraph;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+
+/**
+ * Append-only Journal neben der .erd Datei ({@code <name>.erd.journal}). Statt bei jeder Änderung die ganze Datei
+ * neu zu schreiben, werden nur kleine Edit-Records angehängt und im Leerlauf / beim Schließen in die Datei kompaktiert.
+ * <p>
+ * Erste Zeile ist der Hash ({@link ErdIo#hash}) der .erd Datei auf die sich das Journal bezieht, danach ein
+ * Json-Record pro Zeile. Passt der Hash beim Öffnen nicht (Datei wurde danach komplett geschrieben), wird es verworfen.
+ * <p>
+ * Records werden auf dem EDT eingesammelt ({@link #drain}), alle Datei-Zugriffe danach laufen auf dem Save-Thread
+ * des Editors, damit {@code force} den EDT nicht blockiert und Anhängen / Kompaktieren in Reihenfolge passieren.
+ */
+public final class ErdJournal implements NodeGraph.EditListener {
+    private static final String ENABLED_KEY = "net.villagerzock.erdplugin.journalMode";
+    private static final long COMPACT_SIZE = 1 << 20;
+
+    private final NodeGraph graph;
+    private final Path path;
+    private String baseHash;
+
+    // Records in der Reihenfolge der Änderungen, Nodes werden über ihre Id referenziert
+    private final List<String> pending = new ArrayList<>();
+    // Verschieben / Umbenennen wird zusammengefasst, geschrieben wird der Stand beim nächsten Record bzw. flush
+    private final Set<Node> moved = Collections.newSetFromMap(new IdentityHashMap<>());
+    private final Set<Node> contentChanged = Collections.newSetFromMap(new IdentityHashMap<>());
+    // seit beginCompaction() wurden Records eingesammelt, die evtl. noch nicht in der Datei stehen (nur EDT)
+    private boolean drained = false;
+
+    public ErdJournal(VirtualFile file, NodeGraph graph) throws IOException {
+        this.graph = graph;
+        this.path = pathOf(file);
+        this.baseHash = ErdIo.hash(file.contentsToByteArray());
+        graph.addEditListener(this);
+    }
+
+    public static boolean isEnabled() {
+        return PropertiesComponent.getInstance().getBoolean(ENABLED_KEY, false);
+    }
+
+    public static void setEnabled(boolean enabled) {
+        PropertiesComponent.getInstance().setValue(ENABLED_KEY, enabled, false);
+    }
+
+    /**
+     * Nur für Dateien auf der Platte, angehängt wird direkt über NIO.
+     */
+    public static boolean isSupported(VirtualFile file) {
+        return file.isInLocalFileSystem();
+    }
+
+    public static boolean exists(VirtualFile file) {
+        return isSupported(file) && Files.exists(pathOf(file));
+    }
+
+    private static Path pathOf(VirtualFile file) {
+        Path path = file.toNioPath();
+        return path.resolveSibling(path.getFileName() + ".journal");
+    }
+
+    public void close() {
+        graph.removeEditListener(this);
+    }
+
+    /**
+     * Wenn das Journal zu groß wird lohnt sich Anhängen nicht mehr.
+     */
+    public boolean needsCompaction() throws IOException {
+        return Files.exists(path) && Files.size(path) > COMPACT_SIZE;
+    }
+
+    // ===== Records =====
+
+    private interface RecordWriter {
+        void write(JsonWriter writer) throws IOException;
+    }
+
+    private void record(String op, RecordWriter fields) {
+        StringWriter out = new StringWriter();
+        try {
+            JsonWriter writer = new JsonWriter(out);
+            writer.beginObject();
+            writer.name("op").value(op);
+            fields.write(writer);
+            writer.endObject();
+            writer.flush();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        pending.add(out.toString());
+    }
+
+    /**
+     * Zusammengefasste Moves / Inhaltsänderungen als Records ausgeben, vor dem nächsten strukturellen Record
+     * (z.B. muss ein neues Attribut vor der Connection darauf stehen).
+     */
+    private void drainCoalesced() {
+        if (moved.isEmpty() && contentChanged.isEmpty()) return;
+
+        for (Node node : contentChanged) {
+            moved.remove(node); // der Content-Record enthält die Position schon
+            record("content", w -> {
+                w.name("node").value(node.getId());
+                w.name("value");
+                ErdIo.writeNode(w, node);
+            });
+        }
+        for (Node node : moved) {
+            record("move", w -> {
+                w.name("node").value(node.getId());
+                w.name("x").value(node.getPosition().getX());
+                w.name("y").value(node.getPosition().getY());
+            });
+        }
+        moved.clear();
+        contentChanged.clear();
+    }
+
+    private void recordConnection(String op, NodeGraph.Connection connection) {
+        record(op, w -> {
+            w.name("from").value(connection.from().getId());
+            w.name("fromAttr").value(connection.fromAttr());
+            w.name("to").value(connection.to().getId());
+            w.name("toAttr").value(connection.toAttr());
+            w.name("type").value(connection.type().name());
+        });
+    }
+
+    @Override
+    public void nodeAdded(Node node) {
+        drainCoalesced();
+        int index = graph.getIndexOf(node);
+        record("add", w -> {
+            w.name("index").value(index);
+            w.name("value");
+            ErdIo.writeNode(w, node);
+        });
+    }
+
+    @Override
+    public void nodeRemoved(Node node, int index) {
+        moved.remove(node);
+        contentChanged.remove(node);
+        record("remove", w -> w.name("node").value(node.getId()));
+    }
+
+    @Override
+    public void nodeMoved(Node node, double oldX, double oldY) {
+        moved.add(node);
+    }
+
+    @Override
+    public void nodeContentChanged(Node node, String oldName, Map<String, Attribute> oldAttributes) {
+        contentChanged.add(node);
+    }
+
+    @Override
+    public void connectionAdded(NodeGraph.Connection connection) {
+        drainCoalesced();
+        recordConnection("connect", connection);
+    }
+
+    @Override
+    public void connectionRemoved(NodeGraph.Connection connection) {
+        drainCoalesced();
+        recordConnection("disconnect", connection);
+    }
+
+    // ===== Datei =====
+
+    /**
+     * Sammelt alle Records als Text ein (EDT, liest den Graph). In die Datei kommen sie erst mit {@link #append}.
+     */
+    public String drain() {
+        drainCoalesced();
+        if (pending.isEmpty()) return "";
+
+        StringBuilder records = new StringBuilder();
+        for (String record : pending) {
+            records.append(record).append('\n');
+        }
+        pending.clear();
+        drained = true;
+        return records.toString();
+    }
+
+    /**
+     * Hängt {@code records} aus {@link #drain} an und wartet bis sie auf der Platte sind. Nur auf dem Save-Thread.
+     */
+    public void append(String records) throws IOException {
+        if (records.isEmpty()) return;
+
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+            if (channel.size() == 0) {
+                channel.write(ByteBuffer.wrap((baseHash + "\n").getBytes(StandardCharsets.UTF_8)));
+            }
+            channel.write(ByteBuffer.wrap(records.getBytes(StandardCharsets.UTF_8)));
+            channel.force(false);
+        }
+    }
+
+    /**
+     * Vor dem Snapshot für eine Kompaktierung aufrufen (EDT): liefert die Records die noch im Snapshot enthalten sind.
+     * Nach deren {@link #append} ist {@link #size()} die Position ab der Records nicht mehr im Snapshot enthalten sind.
+     */
+    public String beginCompaction() {
+        String records = drain();
+        drained = false;
+        return records;
+    }
+
+    /**
+     * Länge der Journal-Datei, nur auf dem Save-Thread.
+     */
+    public long size() throws IOException {
+        return Files.exists(path) ? Files.size(path) : 0;
+    }
+
+    /**
+     * Die .erd Datei enthält jetzt alles bis {@code mark}, übrig bleiben nur die Records danach (auf die neue Datei bezogen).
+     * Nur auf dem Save-Thread.
+     */
+    public void compacted(long mark, String newBaseHash) throws IOException {
+        baseHash = newBaseHash;
+        if (!Files.exists(path)) return;
+
+        byte[] journal = Files.readAllBytes(path);
+        if (journal.length <= mark) {
+            Files.deleteIfExists(path);
+            return;
+        }
+
+        Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+        try (OutputStream out = Files.newOutputStream(temp)) {
+            out.write((baseHash + "\n").getBytes(StandardCharsets.UTF_8));
+            out.write(journal, (int) mark, journal.length - (int) mark);
+        }
+        Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * true wenn es nichts zu kompaktieren gibt.
+     */
+    public boolean isEmpty() {
+        return pending.isEmpty() && moved.isEmpty() && contentChanged.isEmpty() && !drained && !Files.exists(path);
+    }
+
+    /**
+     * Die Datei wurde komplett und synchron geschrieben, das Journal wird nicht mehr gebraucht.
+     * Auf dem Save-Thread, damit noch ausstehendes Anhängen vorher passiert.
+     */
+    public void discard() throws IOException {
+        Files.deleteIfExists(path);
+    }
+
+    // ===== Wiederherstellen =====
+
+    /**
+     * Spielt ein vorhandenes Journal (z.B. nach einem Absturz) auf den frisch geladenen Graph ein.
+     *
+     * @return true wenn Records angewendet wurden
+     */
+    public static boolean recover(VirtualFile file, NodeGraph graph) {
+        if (!exists(file)) return false;
+        Path path = pathOf(file);
+
+        List<String> lines;
+        String fileHash;
+        try {
+            lines = Files.readAllLines(path, StandardCharsets.UTF_8);
+            fileHash = ErdIo.hash(file.contentsToByteArray());
+        } catch (IOException e) {
+            e.printStackTrace();
+            return false;
+        }
+
+        if (lines.isEmpty() || !lines.get(0).equals(fileHash)) {
+            System.err.println("Discarding outdated journal for " + file.getName());
+            try {
+                Files.deleteIfExists(path);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            return false;
+        }
+
+        int applied = 0;
+        for (String line : lines.subList(1, lines.size())) {
+            if (line.isBlank()) continue;
+            try {
+                apply(graph, line);
+                applied++;
+            } catch (Exception e) {
+                // nach einem Absturz kann die letzte Zeile abgeschnitten sein
+                System.err.println("Stopping journal replay for " + file.getName() + ": " + e);
+                break;
+            }
+        }
+        return applied > 0;
+    }
+
+    private static void apply(NodeGraph graph, String line) throws IOException {
+        String op = null;
+        int node = -1;
+        int index = Integer.MAX_VALUE;
+        double x = 0;
+        double y = 0;
+        Node value = null;
+        int from = -1;
+        int to = -1;
+        String fromAttr = null;
+        String toAttr = null;
+        NodeGraph.ConnectionType type = NodeGraph.ConnectionType.OneToMany;
+
+        JsonReader reader = new JsonReader(new StringReader(line));
+        reader.beginObject();
+        while (reader.hasNext()) {
+            switch (reader.nextName()) {
+                case "op" -> op = reader.nextString();
+                case "node" -> node = reader.nextInt();
+                case "index" -> index = reader.nextInt();
+                case "x" -> x = reader.nextDouble();
+                case "y" -> y = reader.nextDouble();
+                case "value" -> value = ErdIo.readNode(reader);
+                case "from" -> from = reader.nextInt();
+                case "fromAttr" -> fromAttr = reader.nextString();
+                case "to" -> to = reader.nextInt();
+                case "toAttr" -> toAttr = reader.nextString();
+                case "type" -> type = NodeGraph.ConnectionType.valueOf(reader.nextString());
+                default -> reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        switch (Objects.requireNonNull(op, "op")) {
+            case "add" -> {
+                Objects.requireNonNull(value, "value");
+                graph.insertNode(index, value);
+            }
+            case "remove" -> graph.deleteNode(nodeById(graph, node));
+            case "move" -> nodeById(graph, node).setLocation(x, y);
+            case "content" -> {
+                Objects.requireNonNull(value, "value");
+                Node target = nodeById(graph, node);
+                target.setName(value.getName());
+                target.setAttributes(value.getAttributes());
+                target.setLocation(value.getPosition().getX(), value.getPosition().getY());
+            }
+            case "connect" -> graph.addConnection(new NodeGraph.Connection(nodeById(graph, from), fromAttr, nodeById(graph, to), toAttr, type));
+            case "disconnect" -> {
+                Node fromNode = nodeById(graph, from);
+                Node toNode = nodeById(graph, to);
+                for (NodeGraph.Connection connection : graph.connectionsOf(fromNode)) {
+                    if (connection.from() == fromNode && connection.to() == toNode && connection.type() == type
+                            && Objects.equals(connection.fromAttr(), fromAttr) && Objects.equals(connection.toAttr(), toAttr)) {
+                        graph.delete(connection);
+                        break;
+                    }
+                }
+            }
+            default -> throw new IOException("Unknown journal record: " + op);
+        }
+    }
+
+    private static Node nodeById(NodeGraph graph, int id) throws IOException {
+        Node node = graph.getNode(id);
+        if (node == null) throw new IOException("Unknown node id in journal: " + id);
+        return node;
+    }
+}
@@ -0,0 +1,75 @@
+package net.villagerzock.erdplugin.ui;
+
+import com.intellij.ui.JBColor;
+
+import java.awt.*;
+
+/**
+ * Farben, Strokes und Composites für den Paint-Pfad, einmal angelegt statt pro Node / Connection / Frame.
+ * Die Farben sind {@link JBColor}s und lösen sich bei einem Theme-Wechsel selbst neu auf,
+ * zoomabhängige Strokes / Alphas werden nur neu gebaut wenn sich der Zoom ändert.
+ */
+final class ErdPalette {
+    static final Color NODE_FILL = new JBColor(Color.LIGHT_GRAY.brighter(), Color.DARK_GRAY.darker());
+    static final Color NODE_BORDER = new JBColor(Color.LIGHT_GRAY, Color.DARK_GRAY);
+    static final Color NODE_BORDER_SELECTED = new JBColor(Color.LIGHT_GRAY.darker().darker(), Color.DARK_GRAY.brighter().brighter());
+    static final Color TEXT = JBColor.BLACK;
+    static final Color CONNECTION = JBColor.BLACK;
+    static final Color SELECTED = JBColor.RED.darker();
+    static final Color HOVERED = JBColor.GREEN.darker();
+    static final Color GRID = new JBColor(Color.BLACK.brighter().brighter(), Color.WHITE.darker().darker());
+    static final Color RUBBER_BAND = JBColor.BLUE;
+
+    static final Color MINIMAP_BACKGROUND = NODE_BORDER;
+    static final Color MINIMAP_NODE = JBColor.BLUE;
+    static final Color MINIMAP_CONNECTION = new JBColor(Color.YELLOW, Color.YELLOW);
+    static final Color MINIMAP_SELECTED = JBColor.GREEN;
+    static final Color MINIMAP_VIEWPORT = SELECTED;
+    static final Color MINIMAP_HANDLE = JBColor.BLACK;
+
+    static final BasicStroke CONNECTION_STROKE = new BasicStroke(1.5f);
+    static final BasicStroke NODE_STROKE = new BasicStroke(1f);
+    static final BasicStroke MINIMAP_HANDLE_STROKE = new BasicStroke(1.5f);
+
+    static final Composite RUBBER_BAND_COMPOSITE = AlphaComposite.getInstance(AlphaComposite.SRC_OVER, 0.35f);
+
+    private ErdPalette() {
+    }
+
+    /**
+     * Stroke mit fester Breite auf dem Screen, also {@code width / scale} in World-Koordinaten.
+     */
+    static final class ScaledStroke {
+        private final float width;
+        private double scale = Double.NaN;
+        private BasicStroke stroke;
+
+        ScaledStroke(float width) {
+            this.width = width;
+        }
+
+        BasicStroke get(double scale) {
+            if (scale != this.scale) {
+                this.scale = scale;
+                stroke = new BasicStroke((float) (width / Math.max(scale, 1e-6)));
+            }
+            return stroke;
+        }
+    }
+
+    /**
+     * SRC_OVER mit variablem Alpha (z.B. Grid je nach Zoom), gebaut nur wenn sich das Alpha ändert.
+     */
+    static final class ScaledAlpha {
+        private float alpha = Float.NaN;
+        private Composite composite;
+
+        Composite get(float alpha) {
+            if (alpha != this.alpha) {
+                this.alpha = alpha;
+                composite = AlphaComposite.getInstance(AlphaComposite.SRC_OVER, alpha);
+            }
+            return composite;
+        }
+    }
+}
@@ -0,0 +1,319 @@
+package net.villagerzock.erdplugin.ui;
+
+import net.villagerzock.erdplugin.node.*;
+import net.villagerzock.erdplugin.node.NodeGraph.Connection;
+
+import javax.swing.*;
+import java.awt.*;
+import java.awt.font.FontRenderContext;
+import java.awt.geom.*;
+import java.util.*;
+import java.util.List;
+
+/**
+ * Retained Display-List des Diagramms: pro Node die Zeilen-Icons, pro Connection die fertige Linie samt Crowfeet als ein
+ * {@link Path2D}. Canvas, Minimap, PNG- und SVG-Export spielen dieselben Items ab, dadurch sieht alles gleich aus.
+ * <p>
+ * Items werden beim Abspielen nur neu gebaut wenn sich ihre Grundlage geändert hat: neues {@link NodeLayout} /
+ * neue {@link ConnectionRoute} (beide Caches rechnen schon inkrementell) oder eine gemeldete {@link GraphChange}
+ * die Fremdschlüssel ändert.
+ */
+final class ErdScene implements NodeGraph.ChangeListener {
+    private static final int BAR_HALF_HEIGHT = 6;
+    private static final int CROWFOOT_HALF_HEIGHT = 6;
+    private static final int CIRCLE_RADIUS = 4;
+
+    private final NodeGraph model;
+    private final NodeLayoutCache layoutCache;
+    private final ConnectionRouteCache routeCache;
+    private final ErdIcons icons;
+    // nur für die Plattform-Icons, beim Export null
+    private final Component iconComponent;
+
+    private final Map<Node, NodeItem> nodeItems = new IdentityHashMap<>();
+    private final Map<Connection, ConnectionItem> connectionItems = new IdentityHashMap<>();
+    private final ErdPalette.ScaledStroke overviewStroke = new ErdPalette.ScaledStroke(1f);
+    private final ErdPalette.ScaledStroke overviewSelectionStroke = new ErdPalette.ScaledStroke(2f);
+    private final Rectangle2D.Double nodeBounds = new Rectangle2D.Double();
+
+    private static final class NodeItem {
+        private NodeLayout layout;
+        private Icon[] icons;
+        // Fremdschlüssel haben sich geändert (Connection neu / entfernt)
+        private boolean iconsStale = true;
+    }
+
+    private static final class ConnectionItem {
+        private ConnectionRoute route;
+        // null wenn ein Attribut fehlt
+        private Path2D path;
+        private Path2D overviewPath;
+    }
+
+    ErdScene(NodeGraph model, NodeLayoutCache layoutCache, ConnectionRouteCache routeCache, ErdIcons icons, Component iconComponent) {
+        this.model = model;
+        this.layoutCache = layoutCache;
+        this.routeCache = routeCache;
+        this.icons = icons;
+        this.iconComponent = iconComponent;
+        model.addChangeListener(this);
+    }
+
+    NodeGraph getModel() {
+        return model;
+    }
+
+    @Override
+    public void graphChanged(List<GraphChange> changes) {
+        for (GraphChange change : changes) {
+            switch (change) {
+                case GraphChange.NodeRemoved c -> nodeItems.remove(c.node());
+                case GraphChange.ConnectionAdded c -> connectionEndsChanged(c.connection());
+                case GraphChange.ConnectionRemoved c -> {
+                    connectionItems.remove(c.connection());
+                    connectionEndsChanged(c.connection());
+                }
+                case GraphChange.BulkChange c -> {
+                    nodeItems.clear();
+                    connectionItems.clear();
+                    return;
+                }
+                default -> {
+                    // Moves / Größen / Attribute kommen über neue Layouts und Routen
+                }
+            }
+        }
+    }
+
+    private void connectionEndsChanged(Connection connection) {
+        NodeItem from = nodeItems.get(connection.from());
+        if (from != null) from.iconsStale = true;
+        NodeItem to = nodeItems.get(connection.to());
+        if (to != null) to.iconsStale = true;
+    }
+
+    // ===== Abspielen =====
+
+    /**
+     * Misst noch nie gemessene Nodes, vorher stimmen ihre Bounds im Spatial Index nicht.
+     * Die neuen Größen gehen als ein Batch raus statt als eine Meldung pro Node mitten im Zeichnen.
+     */
+    void measureUnmeasured(Graphics2D g2, FontRenderContext frc) {
+        Collection<Node> unmeasured = model.unmeasuredNodes();
+        // fast immer leer, dann keine Kopie; Messen nimmt die Node aus der Menge
+        if (unmeasured.isEmpty()) return;
+        model.beginBatch();
+        try {
+            for (Node node : List.copyOf(unmeasured)) {
+                layoutCache.get(node, g2, frc);
+            }
+        } finally {
+            model.endBatch();
+        }
+    }
+
+    /**
+     * Zeichnet die Connections in World-Koordinaten, Strichstärke 1.5 World-Einheiten.
+     */
+    void paintConnections(Graphics2D g2, FontRenderContext frc, List<Connection> connections,
+                          INodeSelectable selected, Connection hovered) {
+        g2.setStroke(ErdPalette.CONNECTION_STROKE);
+        // neu gemessene Nodes (Attribute geändert) melden ihre Größe gesammelt nach dem Zeichnen
+        model.beginBatch();
+        try {
+            for (int i = 0; i < connections.size(); i++) {
+                Connection connection = connections.get(i);
+                layoutCache.get(connection.from(), g2, frc);
+                layoutCache.get(connection.to(), g2, frc);
+                ConnectionItem item = connectionItem(connection);
+                if (item == null || item.path == null) continue;
+
+                boolean isSelected = INodeSelectable.isSelected(selected, connection);
+                g2.setColor(isSelected ? ErdPalette.SELECTED : connection == hovered ? ErdPalette.HOVERED : ErdPalette.CONNECTION);
+                g2.draw(item.path);
+            }
+        } finally {
+            model.endBatch();
+        }
+    }
+
+    void paintNodes(Graphics2D g2, FontRenderContext frc, List<Node> nodes,
+                    INodeSelectable selected, Connection hovered) {
+        // Index-Schleifen: kein Iterator pro Frame
+        model.beginBatch();
+        try {
+            for (int i = 0; i < nodes.size(); i++) {
+                paintNode(g2, frc, nodes.get(i), selected, hovered);
+            }
+        } finally {
+            model.endBatch();
+        }
+    }
+
+    private void paintNode(Graphics2D g2, FontRenderContext frc, Node node, INodeSelectable selected, Connection hovered) {
+        NodeLayout layout = layoutCache.get(node, g2, frc);
+        Icon[] rowIcons = nodeItem(node, layout).icons;
+        int h = layout.getRowHeight();
+        int x = (int) node.getPosition().getX();
+        int y = (int) node.getPosition().getY();
+        int w = node.getSize().x();
+
+        g2.setColor(ErdPalette.NODE_FILL);
+        g2.fillRoundRect(x, y, w, node.getSize().y(), 10, 10);
+
+        g2.setColor(ErdPalette.NODE_BORDER);
+        g2.drawLine(x, y + h + 2, x + w, y + h + 2);
+
+        g2.setColor(INodeSelectable.isSelected(selected, node) ? ErdPalette.NODE_BORDER_SELECTED : ErdPalette.NODE_BORDER);
+        g2.drawRoundRect(x, y, w, node.getSize().y(), 10, 10);
+
+        g2.setColor(ErdPalette.TEXT);
+        icons.table().paintIcon(iconComponent, g2, x + 2, y + 2);
+        layout.drawTitle(g2, x + 20, y + h - 2);
+
+        // Endpunkte der ausgewählten (rot) bzw. gehoverten (grün) Connection hervorheben
+        Connection highlighted = selected instanceof Connection connection ? connection : hovered;
+        int fromRow = -1;
+        int toRow = -1;
+        if (highlighted != null) {
+            if (node == highlighted.from()) fromRow = layout.rowOf(highlighted.fromAttr());
+            if (node == highlighted.to()) toRow = layout.rowOf(highlighted.toAttr());
+        }
+
+        for (int i = 0; i < layout.getAttributeCount(); i++) {
+            int rowY = y - 10 + (h * (i + 2));
+            if (i == fromRow || i == toRow) {
+                g2.setColor(highlighted == hovered && highlighted != selected ? ErdPalette.HOVERED : ErdPalette.SELECTED);
+                g2.fillRect(x + 2, rowY, w - 4, 16);
+                g2.setColor(ErdPalette.TEXT);
+            }
+
+            rowIcons[i].paintIcon(iconComponent, g2, x + 2, rowY);
+            layout.drawName(g2, i, x + 20, y + (h * (i + 2)) + 4);
+            layout.drawType(g2, i, (x + w) - (layout.getTypeWidth(i) + 4), y + (h * (i + 2)) + 4);
+        }
+    }
+
+    /**
+     * Vereinfachte Übersicht (Minimap): Connections ohne Symbole, Nodes als Rahmen.
+     */
+    void paintOverview(Graphics2D g2, double factor) {
+        g2.setStroke(overviewStroke.get(factor));
+        g2.setColor(ErdPalette.MINIMAP_CONNECTION);
+        for (Connection connection : model.connections()) {
+            ConnectionItem item = connectionItem(connection);
+            if (item != null) g2.draw(item.overviewPath);
+        }
+        g2.setColor(ErdPalette.MINIMAP_NODE);
+        for (Node node : model.nodes()) {
+            nodeBounds.setRect(node.getPosition().getX(), node.getPosition().getY(), node.getSize().x(), node.getSize().y());
+            g2.draw(nodeBounds);
+        }
+    }
+
+    void paintOverviewSelection(Graphics2D g2, double factor, Collection<Node> nodes, Collection<Connection> connections) {
+        g2.setStroke(overviewSelectionStroke.get(factor));
+        g2.setColor(ErdPalette.MINIMAP_SELECTED);
+        for (Connection connection : connections) {
+            ConnectionItem item = connectionItem(connection);
+            if (item != null) g2.draw(item.overviewPath);
+        }
+        for (Node node : nodes) {
+            nodeBounds.setRect(node.getPosition().getX(), node.getPosition().getY(), node.getSize().x(), node.getSize().y());
+            g2.draw(nodeBounds);
+        }
+    }
+
+    // ===== Items =====
+
+    private NodeItem nodeItem(Node node, NodeLayout layout) {
+        NodeItem item = nodeItems.computeIfAbsent(node, n -> new NodeItem());
+        if (item.layout != layout || item.iconsStale) {
+            Icon[] rowIcons = new Icon[layout.getAttributeCount()];
+            for (int i = 0; i < rowIcons.length; i++) {
+                Attribute attribute = layout.getAttribute(i);
+                rowIcons[i] = icons.column(attribute.primaryKey(), model.isForeignKey(node, attribute.name()));
+            }
+            item.layout = layout;
+            item.icons = rowIcons;
+            item.iconsStale = false;
+        }
+        return item;
+    }
+
+    /**
+     * Item der Connection, null solange sie nicht geroutet werden kann.
+     */
+    private ConnectionItem connectionItem(Connection connection) {
+        ConnectionRoute route = routeCache.get(connection);
+        if (route == null) return null;
+        ConnectionItem item = connectionItems.computeIfAbsent(connection, c -> new ConnectionItem());
+        if (item.route != route) {
+            item.route = route;
+            item.path = buildPath(connection, route);
+            item.overviewPath = buildOverviewPath(route);
+        }
+        return item;
+    }
+
+    private static Path2D buildPath(Connection connection, ConnectionRoute route) {
+        Attribute fromAttr = connection.from().getAttributes().get(connection.fromAttr());
+        Attribute toAttr = connection.to().getAttributes().get(connection.toAttr());
+        if (fromAttr == null || toAttr == null) return null;
+
+        Path2D.Double path = new Path2D.Double();
+        appendPolyline(path, route);
+        // End-Dekos: Node-Kante -> Symbol + Symbol selbst
+        appendEndDecoration(path, route.getStartEdge(), route.getStartSymbol(), connection.type().getTypeTo(toAttr.nullable()));
+        appendEndDecoration(path, route.getEndEdge(), route.getEndSymbol(), connection.type().getTypeFrom(fromAttr.nullable()));
+        return path;
+    }
+
+    private static Path2D buildOverviewPath(ConnectionRoute route) {
+        Path2D.Double path = new Path2D.Double();
+        // Stub von Node-Kante raus, Hauptlinie, Stub rein
+        appendLine(path, route.getStartEdge().getX(), route.getStartEdge().getY(), route.getStartSymbol().getX(), route.getStartSymbol().getY());
+        appendPolyline(path, route);
+        appendLine(path, route.getEndSymbol().getX(), route.getEndSymbol().getY(), route.getEndEdge().getX(), route.getEndEdge().getY());
+        return path;
+    }
+
+    private static void appendPolyline(Path2D path, ConnectionRoute route) {
+        for (int i = 0; i < route.getWaypointCount(); i++) {
+            Point2D p = route.getWaypoint(i);
+            if (i == 0) {
+                path.moveTo(p.getX(), p.getY());
+            } else {
+                path.lineTo(p.getX(), p.getY());
+            }
+        }
+    }
+
+    private static void appendLine(Path2D path, double x1, double y1, double x2, double y2) {
+        path.moveTo(x1, y1);
+        path.lineTo(x2, y2);
+    }
+
+    private static void appendEndDecoration(Path2D path, Point2D edge, Point2D symbol, ErdCanvas.ConnectionIconType type) {
+        if (type == null) return;
+
+        int y = (int) Math.round(edge.getY());
+        int symbolX = (int) Math.round(symbol.getX());
+
+        if (type == ErdCanvas.ConnectionIconType.MANY_ONE || type == ErdCanvas.ConnectionIconType.MANY_ZERO) {
+            // Crowfoot: Stamm plus zwei Linien, Öffnung an der Node-Kante, Spitze am Symbol
+            int edgeX = (int) Math.round(edge.getX());
+            appendLine(path, edgeX, y, symbolX, y);
+            appendLine(path, edgeX, y - CROWFOOT_HALF_HEIGHT, symbolX, y);
+            appendLine(path, edgeX, y + CROWFOOT_HALF_HEIGHT, symbolX, y);
+        } else {
+            appendLine(path, edge.getX(), edge.getY(), symbol.getX(), symbol.getY());
+        }
+
+        switch (type) {
+            case ONE, MANY_ONE -> appendLine(path, symbolX, y - BAR_HALF_HEIGHT, symbolX, y + BAR_HALF_HEIGHT);
+            case ZERO, MANY_ZERO -> path.append(new Ellipse2D.Double(symbolX - CIRCLE_RADIUS, y - CIRCLE_RADIUS, CIRCLE_RADIUS * 2, CIRCLE_RADIUS * 2), false);
+            default -> {}
+        }
+    }
+}
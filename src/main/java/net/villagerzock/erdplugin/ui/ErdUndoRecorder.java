@@ -0,0 +1,336 @@
+package net.villagerzock.erdplugin.ui;
+
+import net.villagerzock.erdplugin.node.Attribute;
+import net.villagerzock.erdplugin.node.Node;
+import net.villagerzock.erdplugin.node.NodeGraph;
+
+import java.util.*;
+
+/**
+ * Sammelt Änderungen am Graph als kleine Deltas (alte / neue Position, Name + Attribute vorher / nachher,
+ * Node / Connection hinzugefügt / entfernt) und registriert sie als einen Schritt über {@link ErdEditorPanel#undoableChange}.
+ * Der Speicher pro Undo-Schritt wächst damit mit der Änderung, nicht mit dem Diagramm. Zusätzlich zur Schritt-Grenze
+ * von IntelliJs UndoManager gilt pro Dokument ein Budget ({@link #MAX_UNDO_BYTES}, geschätzt): wird es überschritten,
+ * werden die ältesten Schritte verworfen, ihre Deltas freigegeben und ein Undo bis dorthin meldet einen Fehler.
+ * <p>
+ * Ein Schritt endet mit {@link #changed()} (jede Änderung ruft {@link ErdEditorPanel#changed()}), außer er wurde
+ * mit {@link #begin()} geöffnet, dann erst mit {@link #end(String)} (z.B. ein ganzer Drag).
+ */
+final class ErdUndoRecorder implements NodeGraph.EditListener {
+    private static final String DEFAULT_NAME = "Edit Diagram";
+    /** Geschätzter Speicher aller Undo-Schritte eines Dokuments */
+    private static final long MAX_UNDO_BYTES = 16L * 1024 * 1024;
+    // grobe Schätzung für Objekt-Header + Felder eines Deltas / Eintrags
+    private static final long OBJECT_BYTES = 48;
+
+    private interface Delta {
+        void undo();
+
+        void redo();
+
+        default boolean isNoOp() {
+            return false;
+        }
+
+        default long estimatedBytes() {
+            return OBJECT_BYTES;
+        }
+    }
+
+    private static final class Step {
+        private List<Delta> deltas;
+        private final long bytes;
+
+        private Step(List<Delta> deltas) {
+            this.deltas = deltas;
+            long bytes = OBJECT_BYTES;
+            for (Delta delta : deltas) {
+                bytes += delta.estimatedBytes();
+            }
+            this.bytes = bytes;
+        }
+
+        private boolean isAvailable() {
+            return deltas != null;
+        }
+    }
+
+    private final NodeGraph graph;
+    private final ErdEditorPanel panel;
+
+    private List<Delta> deltas = new ArrayList<>();
+    // Moves / Inhaltsänderungen einer Node werden bis zur nächsten strukturellen Änderung zusammengefasst
+    private final Map<Node, MoveDelta> openMoves = new IdentityHashMap<>();
+    private final Map<Node, ContentDelta> openContent = new IdentityHashMap<>();
+    private int depth = 0;
+    private boolean replaying = false;
+
+    // registrierte Schritte, älteste zuerst (auch bereits rückgängig gemachte, das überschätzt höchstens)
+    private final ArrayDeque<Step> steps = new ArrayDeque<>();
+    private long stepBytes = 0;
+
+    ErdUndoRecorder(NodeGraph graph, ErdEditorPanel panel) {
+        this.graph = graph;
+        this.panel = panel;
+        graph.addEditListener(this);
+    }
+
+    void begin() {
+        depth++;
+    }
+
+    void end(String name) {
+        if (depth == 0) return;
+        depth--;
+        if (depth == 0) commit(name);
+    }
+
+    void changed() {
+        if (depth == 0) commit(DEFAULT_NAME);
+    }
+
+    /**
+     * Änderungen aus {@code runnable} landen in keinem Undo-Schritt (z.B. Vorschau-Frames beim Formatieren).
+     */
+    void untracked(Runnable runnable) {
+        replay(runnable);
+    }
+
+    private void commit(String name) {
+        openMoves.clear();
+        openContent.clear();
+        List<Delta> step = deltas;
+        deltas = new ArrayList<>();
+        step.removeIf(Delta::isNoOp);
+        if (step.isEmpty()) return;
+
+        Step registered = new Step(step);
+        steps.addLast(registered);
+        stepBytes += registered.bytes;
+        trim();
+
+        panel.undoableChange(name,
+                () -> replay(() -> {
+                    List<Delta> deltas = registered.deltas;
+                    for (int i = deltas.size() - 1; i >= 0; i--) {
+                        deltas.get(i).undo();
+                    }
+                }),
+                () -> replay(() -> {
+                    for (Delta delta : registered.deltas) {
+                        delta.redo();
+                    }
+                }),
+                registered::isAvailable);
+    }
+
+    /**
+     * Verwirft die ältesten Schritte bis das Budget wieder passt, der neueste bleibt immer.
+     */
+    private void trim() {
+        while (stepBytes > MAX_UNDO_BYTES && steps.size() > 1) {
+            Step oldest = steps.removeFirst();
+            stepBytes -= oldest.bytes;
+            oldest.deltas = null;
+        }
+    }
+
+    private void replay(Runnable runnable) {
+        replaying = true;
+        try {
+            runnable.run();
+        } finally {
+            replaying = false;
+        }
+    }
+
+    private void structural(Delta delta) {
+        if (replaying) return;
+        openMoves.clear();
+        openContent.clear();
+        deltas.add(delta);
+    }
+
+    // ===== Deltas =====
+
+    private static final class MoveDelta implements Delta {
+        private final Node node;
+        private final double oldX;
+        private final double oldY;
+        private double newX;
+        private double newY;
+
+        private MoveDelta(Node node, double oldX, double oldY) {
+            this.node = node;
+            this.oldX = oldX;
+            this.oldY = oldY;
+        }
+
+        @Override
+        public void undo() {
+            node.setLocation(oldX, oldY);
+        }
+
+        @Override
+        public void redo() {
+            node.setLocation(newX, newY);
+        }
+
+        @Override
+        public boolean isNoOp() {
+            return oldX == newX && oldY == newY;
+        }
+    }
+
+    private static final class ContentDelta implements Delta {
+        private final Node node;
+        private final String oldName;
+        private final Map<String, Attribute> oldAttributes;
+        private String newName;
+        private Map<String, Attribute> newAttributes;
+
+        private ContentDelta(Node node, String oldName, Map<String, Attribute> oldAttributes) {
+            this.node = node;
+            this.oldName = oldName;
+            this.oldAttributes = new LinkedHashMap<>(oldAttributes);
+        }
+
+        @Override
+        public void undo() {
+            node.setName(oldName);
+            node.setAttributes(new LinkedHashMap<>(oldAttributes));
+        }
+
+        @Override
+        public void redo() {
+            node.setName(newName);
+            node.setAttributes(new LinkedHashMap<>(newAttributes));
+        }
+
+        @Override
+        public boolean isNoOp() {
+            return Objects.equals(oldName, newName) && oldAttributes.equals(newAttributes);
+        }
+
+        @Override
+        public long estimatedBytes() {
+            return OBJECT_BYTES + estimate(oldName) + estimate(newName) + estimate(oldAttributes) + estimate(newAttributes);
+        }
+    }
+
+    private static long estimate(String text) {
+        return text == null ? 0 : OBJECT_BYTES + text.length() * 2L;
+    }
+
+    private static long estimate(Map<String, Attribute> attributes) {
+        if (attributes == null) return 0;
+        long bytes = OBJECT_BYTES;
+        for (Attribute attribute : attributes.values()) {
+            // Map-Eintrag + Record + Strings
+            bytes += 2 * OBJECT_BYTES + estimate(attribute.name()) + estimate(attribute.type()) + estimate(attribute.defaultValue());
+        }
+        return bytes;
+    }
+
+    /**
+     * Eine entfernte Node hängt nur noch am Delta, zählt also komplett.
+     */
+    private static long estimate(Node node) {
+        return 2 * OBJECT_BYTES + estimate(node.getName()) + estimate(node.getAttributes());
+    }
+
+    // ===== NodeGraph.EditListener =====
+
+    @Override
+    public void nodeAdded(Node node) {
+        int index = graph.getIndexOf(node);
+        structural(new Delta() {
+            @Override
+            public void undo() {
+                graph.deleteNode(node);
+            }
+
+            @Override
+            public void redo() {
+                graph.insertNode(index, node);
+            }
+        });
+    }
+
+    @Override
+    public void nodeRemoved(Node node, int index) {
+        long bytes = estimate(node);
+        structural(new Delta() {
+            @Override
+            public void undo() {
+                graph.insertNode(index, node);
+            }
+
+            @Override
+            public void redo() {
+                graph.deleteNode(node);
+            }
+
+            @Override
+            public long estimatedBytes() {
+                return bytes;
+            }
+        });
+    }
+
+    @Override
+    public void nodeMoved(Node node, double oldX, double oldY) {
+        if (replaying) return;
+        MoveDelta delta = openMoves.get(node);
+        if (delta == null) {
+            delta = new MoveDelta(node, oldX, oldY);
+            openMoves.put(node, delta);
+            deltas.add(delta);
+        }
+        delta.newX = node.getPosition().getX();
+        delta.newY = node.getPosition().getY();
+    }
+
+    @Override
+    public void nodeContentChanged(Node node, String oldName, Map<String, Attribute> oldAttributes) {
+        if (replaying) return;
+        ContentDelta delta = openContent.get(node);
+        if (delta == null) {
+            delta = new ContentDelta(node, oldName, oldAttributes);
+            openContent.put(node, delta);
+            deltas.add(delta);
+        }
+        delta.newName = node.getName();
+        delta.newAttributes = new LinkedHashMap<>(node.getAttributes());
+    }
+
+    @Override
+    public void connectionAdded(NodeGraph.Connection connection) {
+        structural(new Delta() {
+            @Override
+            public void undo() {
+                graph.delete(connection);
+            }
+
+            @Override
+            public void redo() {
+                graph.addConnection(connection);
+            }
+        });
+    }
+
+    @Override
+    public void connectionRemoved(NodeGraph.Connection connection) {
+        structural(new Delta() {
+            @Override
+            public void undo() {
+                graph.addConnection(connection);
+            }
+
+            @Override
+            public void redo() {
+                graph.delete(connection);
+            }
+        });
+    }
+}
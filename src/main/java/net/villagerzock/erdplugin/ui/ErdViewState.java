@@ -4,4 +4,23 @@ public class ErdViewState {
     public double zoom = 2.5;
     public double panX = 0.0;
     public double panY = 0.0;
+
+    // Level of Detail: unterhalb dieser Zoom-Stufen wird vereinfacht gezeichnet
+    public double titleOnlyZoom = 0.7;
+    public double boxOnlyZoom = 0.45;
+
+    public enum Detail {
+        /** Alles: Attribute, Icons, Crowfeet */
+        FULL,
+        /** Nodes nur mit Titel, Connections als gerade Linie */
+        TITLE,
+        /** Nodes als Rechteck, Connections als gerade Linie */
+        BOX
+    }
+
+    public Detail detail() {
+        if (zoom < boxOnlyZoom) return Detail.BOX;
+        if (zoom < titleOnlyZoom) return Detail.TITLE;
+        return Detail.FULL;
+    }
 }
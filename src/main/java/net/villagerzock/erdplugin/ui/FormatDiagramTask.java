@@ -0,0 +1,112 @@
+package net.villagerzock.erdplugin.ui;
+
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.progress.ProgressIndicator;
+import com.intellij.openapi.progress.Task;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.util.registry.Registry;
+import net.villagerzock.erdplugin.node.ForceLayout;
+import net.villagerzock.erdplugin.node.Node;
+import net.villagerzock.erdplugin.node.NodeGraph;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * {@link ForceLayout} im Hintergrund, Zwischenstände landen gedrosselt als Vorschau auf dem EDT (ohne Undo).
+ * Am Ende ein Undo-Schritt vorher -> nachher, bei Abbruch zurück auf die alten Positionen.
+ * Abstoßung / theta kommen aus der Registry ({@value #EXACT_REPULSION_KEY}, {@value #THETA_KEY}).
+ */
+public class FormatDiagramTask extends Task.Backgroundable {
+    private static final long FRAME_MILLIS = 33; // ~30 fps Preview
+    static final String EXACT_REPULSION_KEY = "erd.format.exact.repulsion";
+    static final String THETA_KEY = "erd.format.barnes.hut.theta";
+
+    private final ErdEditorPanel panel;
+    private final ErdCanvas canvas;
+    private final ForceLayout layout;
+    private final Node[] nodes;
+    private final double[] before;
+
+    private final AtomicReference<double[]> pendingFrame = new AtomicReference<>();
+    private double[] result;
+    private boolean finished = false;
+
+    public FormatDiagramTask(Project project, NodeGraph model, ErdEditorPanel panel, ErdCanvas canvas) {
+        super(project, "Formatting diagram", true);
+        this.panel = panel;
+        this.canvas = canvas;
+        this.layout = new ForceLayout(model);
+        layout.setRepulsion(Registry.is(EXACT_REPULSION_KEY) ? ForceLayout.Repulsion.EXACT : ForceLayout.Repulsion.BARNES_HUT);
+        layout.setTheta(Registry.doubleValue(THETA_KEY));
+        this.nodes = layout.getNodes();
+        this.before = ForceLayout.positionsOf(nodes);
+    }
+
+    @Override
+    public void run(@NotNull ProgressIndicator indicator) {
+        indicator.setIndeterminate(false);
+        long lastFrame = 0;
+        while (!layout.isFinished()) {
+            indicator.checkCanceled();
+            layout.step();
+
+            int iteration = layout.getIteration();
+            indicator.setFraction((double) iteration / ForceLayout.ITERATIONS);
+            indicator.setText("Layout iteration (" + iteration + "/" + ForceLayout.ITERATIONS + ")");
+
+            long now = System.currentTimeMillis();
+            if (now - lastFrame >= FRAME_MILLIS) {
+                lastFrame = now;
+                publish(layout.getPositions());
+            }
+        }
+        layout.normalize();
+        result = layout.getPositions();
+    }
+
+    private void publish(double[] frame) {
+        // nur einen invokeLater gleichzeitig, ältere Frames werden einfach überschrieben
+        if (pendingFrame.getAndSet(frame) != null) return;
+        ApplicationManager.getApplication().invokeLater(() -> {
+            double[] latest = pendingFrame.getAndSet(null);
+            if (finished || latest == null) return;
+            panel.applyUntracked(() -> ForceLayout.applyPositions(nodes, latest));
+            canvas.repaint();
+        });
+    }
+
+    @Override
+    public void onSuccess() {
+        finished = true;
+        double[] after = result;
+        // Vorschau zurück auf Anfang, damit der Undo-Schritt genau vorher -> nachher enthält
+        panel.applyUntracked(() -> ForceLayout.applyPositions(nodes, before));
+        panel.beginEdit();
+        ForceLayout.applyPositions(nodes, after);
+        panel.endEdit("Format Diagram");
+        canvas.repaint();
+    }
+
+    @Override
+    public void onCancel() {
+        restore();
+    }
+
+    @Override
+    public void onThrowable(@NotNull Throwable error) {
+        restore();
+        super.onThrowable(error);
+    }
+
+    @Override
+    public void onFinished() {
+        panel.setFormatting(false);
+    }
+
+    private void restore() {
+        finished = true;
+        panel.applyUntracked(() -> ForceLayout.applyPositions(nodes, before));
+        canvas.repaint();
+    }
+}
@@ -0,0 +1,60 @@
+package net.villagerzock.erdplugin.ui;
+
+import com.intellij.ui.JBColor;
+
+import java.awt.*;
+import java.awt.geom.Rectangle2D;
+import java.awt.image.BufferedImage;
+
+/**
+ * Eine Grid-Zelle als kleines Bild (Linie oben + links, 1 Device-Pixel), die per {@link TexturePaint} gekachelt wird.
+ * Statt hunderter Linien pro Frame also ein einzelnes {@code fillRect}. Das Bild wird nur bei anderer Zellgröße in
+ * Pixeln (Zoom / HiDPI) oder Theme-Wechsel neu gebaut, das Paint nur wenn sich zusätzlich der Ursprung verschiebt.
+ */
+final class GridTexture {
+    private BufferedImage tile = null;
+    private int tilePixels = -1;
+    private boolean tileBright;
+
+    private TexturePaint paint = null;
+    private double anchorX = Double.NaN;
+    private double anchorY = Double.NaN;
+    private double anchorSize = Double.NaN;
+
+    /**
+     * @param anchorX     Position einer Gridlinie im aktuellen User-Space
+     * @param anchorY     Position einer Gridlinie im aktuellen User-Space
+     * @param size        Abstand der Linien im User-Space
+     * @param deviceScale User-Space -> Device-Pixel ({@code g.getTransform().getScaleX()})
+     */
+    Paint get(double anchorX, double anchorY, double size, double deviceScale) {
+        int pixels = Math.max(1, (int) Math.round(size * deviceScale));
+        boolean bright = JBColor.isBright();
+        if (tile == null || pixels != tilePixels || bright != tileBright) {
+            tile = render(pixels);
+            tilePixels = pixels;
+            tileBright = bright;
+            paint = null;
+        }
+        if (paint == null || anchorX != this.anchorX || anchorY != this.anchorY || size != anchorSize) {
+            paint = new TexturePaint(tile, new Rectangle2D.Double(anchorX, anchorY, size, size));
+            this.anchorX = anchorX;
+            this.anchorY = anchorY;
+            this.anchorSize = size;
+        }
+        return paint;
+    }
+
+    private static BufferedImage render(int pixels) {
+        BufferedImage image = new BufferedImage(pixels, pixels, BufferedImage.TYPE_INT_ARGB);
+        Graphics2D g = image.createGraphics();
+        try {
+            g.setColor(ErdPalette.GRID);
+            g.fillRect(0, 0, pixels, 1);
+            g.fillRect(0, 0, 1, pixels);
+        } finally {
+            g.dispose();
+        }
+        return image;
+    }
+}
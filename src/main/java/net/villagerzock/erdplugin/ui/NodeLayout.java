@@ -0,0 +1,133 @@
+package net.villagerzock.erdplugin.ui;
+
+import net.villagerzock.erdplugin.node.Attribute;
+import net.villagerzock.erdplugin.node.Node;
+import net.villagerzock.erdplugin.util.Vector2;
+
+import java.awt.*;
+import java.awt.font.FontRenderContext;
+import java.awt.font.TextLayout;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Gemessene Größe und Text-Layouts einer Node für eine bestimmte Font / FontRenderContext.
+ * Wird von {@link NodeLayoutCache} erstellt und nur neu gebaut wenn sich Name, Attribute oder Font ändern.
+ */
+public final class NodeLayout {
+    private final int contentVersion;
+    private final Font font;
+    private final FontRenderContext frc;
+
+    private final int rowHeight;
+    private final Vector2 size;
+    private final TextLayout title;
+    private final Attribute[] attributes;
+    private final TextLayout[] names;
+    private final TextLayout[] types;
+    private final int[] typeWidths;
+    private final Map<String, Integer> rows;
+
+    NodeLayout(Node node, Font font, FontRenderContext frc, int rowHeight) {
+        this.contentVersion = node.getContentVersion();
+        this.font = font;
+        this.frc = frc;
+        this.rowHeight = rowHeight;
+
+        this.title = layout(node.getName(), font, frc);
+        int width = Math.max((int) advance(title) + 4, 10);
+
+        this.attributes = node.getAttributes().values().toArray(Attribute[]::new);
+        this.names = new TextLayout[attributes.length];
+        this.types = new TextLayout[attributes.length];
+        this.typeWidths = new int[attributes.length];
+        this.rows = new HashMap<>(attributes.length * 2);
+
+        for (int i = 0; i < attributes.length; i++) {
+            Attribute attribute = attributes[i];
+            rows.putIfAbsent(attribute.name(), i);
+            names[i] = layout(attribute.name(), font, frc);
+            types[i] = layout(attribute.type(), font, frc);
+            typeWidths[i] = attribute.type().isBlank() ? 4 : (int) (advance(types[i]) + 4);
+
+            String attributeText = String.format("%s %s", attribute.name(), attribute.type());
+            if (attributeText.isBlank()) continue;
+            float w = advance(layout(attributeText, font, frc)) + 12;
+            if (w > width) {
+                width = (int) w;
+            }
+        }
+
+        this.size = new Vector2(width + 20, rowHeight * (attributes.length + 1) + 20);
+    }
+
+    boolean isValidFor(Node node, Font font, FontRenderContext frc) {
+        return contentVersion == node.getContentVersion() && this.font.equals(font) && this.frc.equals(frc);
+    }
+
+    boolean isValidFor(Node node) {
+        return contentVersion == node.getContentVersion();
+    }
+
+    private static TextLayout layout(String text, Font font, FontRenderContext frc) {
+        // TextLayout mag keine leeren Strings
+        return text == null || text.isEmpty() ? null : new TextLayout(text, font, frc);
+    }
+
+    private static float advance(TextLayout layout) {
+        return layout == null ? 0 : layout.getAdvance();
+    }
+
+    private static void draw(Graphics2D g2, TextLayout layout, float x, float y) {
+        if (layout != null) layout.draw(g2, x, y);
+    }
+
+    public int getRowHeight() {
+        return rowHeight;
+    }
+
+    public Vector2 getSize() {
+        return size;
+    }
+
+    public int getAttributeCount() {
+        return attributes.length;
+    }
+
+    public Attribute getAttribute(int row) {
+        return attributes[row];
+    }
+
+    public int getTypeWidth(int row) {
+        return typeWidths[row];
+    }
+
+    /**
+     * Zeile des Attributs oder -1.
+     */
+    public int rowOf(String attributeName) {
+        Integer row = rows.get(attributeName);
+        return row == null ? -1 : row;
+    }
+
+    /**
+     * Y-Offset (relativ zur Node) an dem eine Connection für dieses Attribut andockt, oder -1.
+     */
+    public int connectionOffset(String attributeName) {
+        int row = rowOf(attributeName);
+        if (row < 0) return -1;
+        return -10 + (rowHeight * (row + 2) + (rowHeight / 2));
+    }
+
+    public void drawTitle(Graphics2D g2, float x, float y) {
+        draw(g2, title, x, y);
+    }
+
+    public void drawName(Graphics2D g2, int row, float x, float y) {
+        draw(g2, names[row], x, y);
+    }
+
+    public void drawType(Graphics2D g2, int row, float x, float y) {
+        draw(g2, types[row], x, y);
+    }
+}
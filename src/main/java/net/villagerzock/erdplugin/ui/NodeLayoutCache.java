@@ -0,0 +1,52 @@
+package net.villagerzock.erdplugin.ui;
+
+import net.villagerzock.erdplugin.node.Node;
+
+import java.awt.*;
+import java.awt.font.FontRenderContext;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.function.Consumer;
+
+/**
+ * Cache für {@link NodeLayout}s, damit nicht bei jedem Paint alle Texte neu gemessen werden.
+ * Ein Eintrag wird nur neu berechnet wenn sich Name / Attribute der Node oder Font / FontRenderContext ändern.
+ */
+public final class NodeLayoutCache {
+    private final Map<Node, NodeLayout> layouts = new WeakHashMap<>();
+    private Consumer<Node> rebuilt = node -> {};
+
+    /**
+     * Wird aufgerufen wenn das Layout einer Node neu gemessen wurde (z.B. damit Connection-Routen neu berechnet werden).
+     */
+    public void setRebuildListener(Consumer<Node> rebuilt) {
+        this.rebuilt = rebuilt;
+    }
+
+    /**
+     * Liefert das (ggf. neu gemessene) Layout und aktualisiert dabei die Größe der Node.
+     */
+    public NodeLayout get(Node node, Graphics2D g2, FontRenderContext frc) {
+        Font font = g2.getFont();
+        NodeLayout layout = layouts.get(node);
+        if (layout == null || !layout.isValidFor(node, font, frc)) {
+            layout = new NodeLayout(node, font, frc, g2.getFontMetrics(font).getHeight());
+            layouts.put(node, layout);
+            rebuilt.accept(node);
+        }
+        node.setSize(layout.getSize());
+        return layout;
+    }
+
+    /**
+     * Das zuletzt gemessene Layout ohne neu zu messen (z.B. für Hit-Tests), null wenn veraltet oder nie gemessen.
+     */
+    public NodeLayout peek(Node node) {
+        NodeLayout layout = layouts.get(node);
+        return layout != null && layout.isValidFor(node) ? layout : null;
+    }
+
+    public void clear() {
+        layouts.clear();
+    }
+}
@@ -0,0 +1,109 @@
+package net.villagerzock.erdplugin.ui;
+
+import java.awt.*;
+import java.awt.geom.Rectangle2D;
+import java.awt.image.BufferedImage;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Bild-Kacheln einer statischen Ebene. Die Kacheln liegen in einem Screen-Pixel-Raster, das am World-Ursprung hängt,
+ * beim Pannen werden also nur neu sichtbare Kacheln gerendert. Bei Zoom-, Style- oder Model-Änderung wird alles verworfen.
+ */
+final class TileCache {
+    static final int TILE_SIZE = 256;
+    private static final int MAX_TILES = 64;
+
+    interface TilePainter {
+        /**
+         * @param g2        bereits in World-Koordinaten transformiert
+         * @param worldArea World-Bereich der Kachel
+         */
+        void paint(Graphics2D g2, Rectangle2D worldArea);
+    }
+
+    private final Map<Long, BufferedImage> tiles = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Long, BufferedImage> eldest) {
+            return size() > MAX_TILES;
+        }
+    };
+
+    private double zoom = Double.NaN;
+    private double deviceScale = Double.NaN;
+    private double fracX = Double.NaN;
+    private double fracY = Double.NaN;
+    private long revision = -1;
+    private Object style = null;
+
+    /**
+     * Zeichnet alle Kacheln die {@code screenArea} schneiden.
+     *
+     * @param g       Graphics in Screen-Koordinaten (ggf. mit HiDPI-Scale)
+     * @param originX Screen-Position des World-Ursprungs
+     * @param originY Screen-Position des World-Ursprungs
+     */
+    void paint(Graphics2D g, Rectangle screenArea, double originX, double originY, double zoom,
+               long revision, Object style, TilePainter painter) {
+        int baseX = (int) Math.floor(originX);
+        int baseY = (int) Math.floor(originY);
+        double fracX = originX - baseX;
+        double fracY = originY - baseY;
+        double deviceScale = g.getTransform().getScaleX();
+
+        if (zoom != this.zoom || deviceScale != this.deviceScale || fracX != this.fracX || fracY != this.fracY
+                || revision != this.revision || !Objects.equals(style, this.style)) {
+            tiles.clear();
+            this.zoom = zoom;
+            this.deviceScale = deviceScale;
+            this.fracX = fracX;
+            this.fracY = fracY;
+            this.revision = revision;
+            this.style = style;
+        }
+
+        int minTX = Math.floorDiv(screenArea.x - baseX, TILE_SIZE);
+        int minTY = Math.floorDiv(screenArea.y - baseY, TILE_SIZE);
+        int maxTX = Math.floorDiv(screenArea.x + screenArea.width - baseX, TILE_SIZE);
+        int maxTY = Math.floorDiv(screenArea.y + screenArea.height - baseY, TILE_SIZE);
+
+        for (int tx = minTX; tx <= maxTX; tx++) {
+            for (int ty = minTY; ty <= maxTY; ty++) {
+                long key = ((long) tx << 32) | (ty & 0xffffffffL);
+                BufferedImage tile = tiles.get(key);
+                if (tile == null) {
+                    tile = render(tx, ty, painter);
+                    tiles.put(key, tile);
+                }
+                g.drawImage(tile, baseX + tx * TILE_SIZE, baseY + ty * TILE_SIZE, TILE_SIZE, TILE_SIZE, null);
+            }
+        }
+    }
+
+    private BufferedImage render(int tx, int ty, TilePainter painter) {
+        int pixels = (int) Math.ceil(TILE_SIZE * deviceScale);
+        BufferedImage tile = new BufferedImage(pixels, pixels, BufferedImage.TYPE_INT_ARGB);
+        Graphics2D tg = tile.createGraphics();
+        try {
+            tg.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+            tg.scale(deviceScale, deviceScale);
+            // Tile-Pixel = frac + world * zoom - tile * TILE_SIZE, genau wie auf dem Screen
+            tg.translate(fracX - tx * TILE_SIZE, fracY - ty * TILE_SIZE);
+            tg.scale(zoom, zoom);
+
+            // etwas Rand, damit Strokes von Nachbarkacheln nicht abgeschnitten werden
+            double pad = 4 / zoom;
+            double size = TILE_SIZE / zoom;
+            Rectangle2D worldArea = new Rectangle2D.Double(
+                    (tx * TILE_SIZE - fracX) / zoom - pad,
+                    (ty * TILE_SIZE - fracY) / zoom - pad,
+                    size + pad * 2, size + pad * 2
+            );
+            painter.paint(tg, worldArea);
+        } finally {
+            tg.dispose();
+        }
+        return tile;
+    }
+}
@@ -0,0 +1,374 @@
+package net.villagerzock.erdplugin.ui;
+
+import com.intellij.openapi.progress.ProcessCanceledException;
+import com.intellij.openapi.progress.ProgressIndicator;
+import net.villagerzock.erdplugin.node.NodeGraphSnapshot;
+
+import javax.imageio.ImageIO;
+import java.awt.*;
+import java.awt.geom.Rectangle2D;
+import java.awt.image.*;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.NavigableMap;
+import java.util.Queue;
+import java.util.TreeMap;
+import java.util.Vector;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * PNG / JPG Export in horizontalen Bändern statt einem riesigen {@link BufferedImage}.
+ * Der Encoder bekommt ein {@link RenderedImage} das seine Zeilen erst beim Lesen rendert, es liegt also immer nur
+ * das aktuelle Band (ca. {@link #BAND_PIXELS} Pixel) im Speicher, egal wie groß Diagramm und Multiplier sind.
+ * <p>
+ * PNG holt sich die Zeilen per {@link RenderedImage#getData(Rectangle)}, JPG liest aus dem einen Tile per
+ * {@link Raster#createChild} Zeile für Zeile, beides wird aus dem aktuellen Band bedient.
+ * <p>
+ * Die nächsten Bänder werden parallel auf einem {@link ForkJoinPool} gerendert während der Encoder das aktuelle liest.
+ * Jeder Worker zeichnet mit einem eigenen {@link GraphRenderer} auf einer eigenen Kopie eines {@link NodeGraphSnapshot},
+ * es gibt also keinen geteilten veränderlichen Zustand; der Encoder bekommt die Bänder trotzdem in Reihenfolge.
+ * Icons und Hintergrundfarbe löst der Aufrufer auf dem EDT auf, Worker fassen keine Swing-Komponente an.
+ * Läuft selbst in einem Hintergrund-Task, beim Abbrechen werden die noch ausstehenden Bänder verworfen.
+ */
+final class TiledImageExport {
+    /** Pixel pro Band, bei INT_ARGB also ca. 8 MB */
+    private static final int BAND_PIXELS = 2 * 1024 * 1024;
+    /** Höchstens so viele Bänder gleichzeitig in Arbeit / fertig im Speicher */
+    private static final int MAX_BANDS_IN_FLIGHT = 16;
+
+    private final NodeGraphSnapshot snapshot;
+    private final ErdIcons icons;
+    private final Color background;
+    private final Rectangle2D bounds;
+    private final int multiplier;
+    private final boolean transparent;
+    private final int imageType;
+    private final int width;
+    private final int height;
+    private final int bandHeight;
+    private final int bandCount;
+    private final ColorModel colorModel;
+    private final SampleModel sampleModel;
+
+    private final ForkJoinPool pool;
+    private final ProgressIndicator indicator;
+    private final int window;
+    // Band-Index -> Task, nur vom Encoder-Thread benutzt
+    private final NavigableMap<Integer, ForkJoinTask<BufferedImage>> pending = new TreeMap<>();
+    // freie Renderer, jeder wird immer nur von einem Worker gleichzeitig benutzt
+    private final Queue<GraphRenderer> renderers = new ConcurrentLinkedQueue<>();
+
+    private BufferedImage band = null;
+    private int[] bandPixels = null;
+    private int bandY = -1;
+
+    private TiledImageExport(NodeGraphSnapshot snapshot, ErdIcons icons, Color background, Rectangle2D bounds, int multiplier,
+                             boolean transparent, ForkJoinPool pool, ProgressIndicator indicator) throws IOException {
+        this.snapshot = snapshot;
+        this.icons = icons;
+        this.background = background;
+        this.bounds = bounds;
+        this.multiplier = multiplier;
+        this.transparent = transparent;
+        this.imageType = transparent ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB;
+
+        long w = (long) Math.ceil(bounds.getWidth() * multiplier);
+        long h = (long) Math.ceil(bounds.getHeight() * multiplier);
+        if (w <= 0 || h <= 0) {
+            throw new IOException("Nothing to export");
+        }
+        // das eine Tile für JPG braucht ein SampleModel über das ganze Bild
+        if (w * h >= Integer.MAX_VALUE) {
+            throw new IOException("Image too large (" + w + " x " + h + " px), use a smaller multiplier or SVG");
+        }
+        this.width = (int) w;
+        this.height = (int) h;
+        this.bandHeight = Math.clamp(BAND_PIXELS / width, 1, height);
+        this.bandCount = (height + bandHeight - 1) / bandHeight;
+        this.pool = pool;
+        this.indicator = indicator;
+        this.window = Math.clamp(pool.getParallelism(), 1, MAX_BANDS_IN_FLIGHT);
+
+        this.colorModel = new BufferedImage(1, 1, imageType).getColorModel();
+        this.sampleModel = colorModel.createCompatibleSampleModel(width, height);
+    }
+
+    /**
+     * Läuft im Hintergrund. {@code icons} und {@code background} kommen schon aufgelöst vom EDT,
+     * siehe {@link ErdIcons#rendered}. Bei Abbruch wird die halb geschriebene Datei wieder gelöscht.
+     */
+    static void export(NodeGraphSnapshot snapshot, ErdIcons icons, Color background, Rectangle2D bounds, int multiplier,
+                       ErdCanvas.ImageType format, File file, ProgressIndicator indicator) throws IOException {
+        ForkJoinPool pool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+        TiledImageExport export = null;
+        try {
+            export = new TiledImageExport(snapshot, icons, background, bounds, multiplier, format.hasTransparency(), pool, indicator);
+            if (!ImageIO.write(export.new BandedImage(), format.getFormat(), file)) {
+                throw new IOException("No image writer for " + format.getFormat());
+            }
+        } catch (ProcessCanceledException e) {
+            Files.deleteIfExists(file.toPath());
+            throw e;
+        } finally {
+            if (export != null) {
+                export.cancelPending();
+            }
+            pool.shutdownNow();
+        }
+    }
+
+    /**
+     * Alle angestoßenen aber nicht mehr abgeholten Bänder abbrechen, nach Fehler / Abbruch liest sie niemand.
+     */
+    private void cancelPending() {
+        for (ForkJoinTask<BufferedImage> task : pending.values()) {
+            task.cancel(false);
+        }
+        pending.clear();
+    }
+
+    /**
+     * Das Band das {@code row} enthält. Beim Wechsel werden die folgenden {@link #window} Bänder schon angestoßen,
+     * dann wird auf das gesuchte gewartet. Jedes Band ist ein neues Bild, schon herausgegebene Raster bleiben also gültig.
+     */
+    private BufferedImage band(int row) {
+        if (band == null || row < bandY || row >= bandY + band.getHeight()) {
+            indicator.checkCanceled();
+            int index = row / bandHeight;
+            indicator.setFraction((double) index / bandCount);
+            indicator.setText("Rendering band (" + (index + 1) + "/" + bandCount + ")");
+            // Bänder vor dem gesuchten werden nicht mehr gelesen, abbrechen statt sie fertig zu rendern
+            NavigableMap<Integer, ForkJoinTask<BufferedImage>> skipped = pending.headMap(index, false);
+            for (ForkJoinTask<BufferedImage> task : skipped.values()) {
+                task.cancel(false);
+            }
+            skipped.clear();
+            for (int i = index; i < Math.min(index + window, bandCount); i++) {
+                int bandIndex = i;
+                pending.computeIfAbsent(i, k -> pool.submit(() -> renderBand(bandIndex)));
+            }
+            band = pending.remove(index).join();
+            bandPixels = ((DataBufferInt) band.getRaster().getDataBuffer()).getData();
+            bandY = index * bandHeight;
+        }
+        return band;
+    }
+
+    /**
+     * Läuft auf einem Worker, holt sich einen freien Renderer (oder baut einen auf einer neuen Kopie des Snapshots).
+     */
+    private BufferedImage renderBand(int index) {
+        // nach dem Abbrechen angestoßene Bänder gar nicht erst rendern
+        indicator.checkCanceled();
+        GraphRenderer renderer = renderers.poll();
+        if (renderer == null) {
+            renderer = GraphRenderer.forSnapshot(snapshot, icons, background);
+        }
+        try {
+            int y = index * bandHeight;
+            return renderBand(renderer, y, Math.min(bandHeight, height - y));
+        } finally {
+            renderers.add(renderer);
+        }
+    }
+
+    private BufferedImage renderBand(GraphRenderer renderer, int y, int h) {
+        BufferedImage image = new BufferedImage(width, h, imageType);
+        Graphics2D g = image.createGraphics();
+        try {
+            g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+
+            if (!transparent) {
+                g.setColor(background);
+                g.fillRect(0, 0, width, h);
+            }
+
+            g.translate(0, -y);
+            g.scale(multiplier, multiplier);
+            g.translate(-bounds.getX(), -bounds.getY());
+
+            Rectangle2D area = new Rectangle2D.Double(bounds.getX(), bounds.getY() + (double) y / multiplier,
+                    bounds.getWidth(), (double) h / multiplier);
+            renderer.paintRegion(g, area, !transparent);
+        } finally {
+            g.dispose();
+        }
+        return image;
+    }
+
+    /**
+     * Kopiert {@code rect} (Bild-Koordinaten) zusammen, liegt es in einem Band gibt es direkt dessen Raster.
+     */
+    private Raster read(Rectangle rect) {
+        BufferedImage first = band(rect.y);
+        if (rect.y + rect.height <= bandY + first.getHeight()) {
+            return first.getRaster().createChild(rect.x, rect.y - bandY, rect.width, rect.height, rect.x, rect.y, null);
+        }
+
+        WritableRaster out = Raster.createWritableRaster(sampleModel.createCompatibleSampleModel(rect.width, rect.height),
+                new Point(rect.x, rect.y));
+        int end = rect.y + rect.height;
+        for (int y = rect.y; y < end; ) {
+            BufferedImage image = band(y);
+            int bandEnd = Math.min(end, bandY + image.getHeight());
+            out.setRect(image.getRaster().createChild(rect.x, y - bandY, rect.width, bandEnd - y, rect.x, y, null));
+            y = bandEnd;
+        }
+        return out;
+    }
+
+    private final class BandedImage implements RenderedImage {
+        private final LazyRaster tile = new LazyRaster(sampleModel, new LazyDataBuffer());
+
+        @Override
+        public Vector<RenderedImage> getSources() {
+            return null;
+        }
+
+        @Override
+        public Object getProperty(String name) {
+            return Image.UndefinedProperty;
+        }
+
+        @Override
+        public String[] getPropertyNames() {
+            return null;
+        }
+
+        @Override
+        public ColorModel getColorModel() {
+            return colorModel;
+        }
+
+        @Override
+        public SampleModel getSampleModel() {
+            return sampleModel;
+        }
+
+        @Override
+        public int getWidth() {
+            return width;
+        }
+
+        @Override
+        public int getHeight() {
+            return height;
+        }
+
+        @Override
+        public int getMinX() {
+            return 0;
+        }
+
+        @Override
+        public int getMinY() {
+            return 0;
+        }
+
+        @Override
+        public int getNumXTiles() {
+            return 1;
+        }
+
+        @Override
+        public int getNumYTiles() {
+            return 1;
+        }
+
+        @Override
+        public int getMinTileX() {
+            return 0;
+        }
+
+        @Override
+        public int getMinTileY() {
+            return 0;
+        }
+
+        @Override
+        public int getTileWidth() {
+            return width;
+        }
+
+        @Override
+        public int getTileHeight() {
+            return height;
+        }
+
+        @Override
+        public int getTileGridXOffset() {
+            return 0;
+        }
+
+        @Override
+        public int getTileGridYOffset() {
+            return 0;
+        }
+
+        @Override
+        public Raster getTile(int tileX, int tileY) {
+            return tile;
+        }
+
+        @Override
+        public Raster getData() {
+            return read(new Rectangle(0, 0, width, height));
+        }
+
+        @Override
+        public Raster getData(Rectangle rect) {
+            return read(rect.intersection(new Rectangle(0, 0, width, height)));
+        }
+
+        @Override
+        public WritableRaster copyData(WritableRaster raster) {
+            if (raster == null) {
+                raster = Raster.createWritableRaster(sampleModel, new Point(0, 0));
+            }
+            Rectangle rect = raster.getBounds().intersection(new Rectangle(0, 0, width, height));
+            if (!rect.isEmpty()) {
+                raster.setRect(read(rect));
+            }
+            return raster;
+        }
+    }
+
+    /**
+     * Das ganze Bild als ein Raster ohne eigenen Speicher. Zeilen-Children kommen direkt aus dem Band,
+     * alles andere liest pixelweise über {@link LazyDataBuffer}.
+     */
+    private final class LazyRaster extends Raster {
+        private LazyRaster(SampleModel sampleModel, DataBuffer dataBuffer) {
+            super(sampleModel, dataBuffer, new Point(0, 0));
+        }
+
+        @Override
+        public Raster createChild(int parentX, int parentY, int width, int height, int childMinX, int childMinY, int[] bandList) {
+            BufferedImage image = band(parentY);
+            if (parentY + height > bandY + image.getHeight()) {
+                return super.createChild(parentX, parentY, width, height, childMinX, childMinY, bandList);
+            }
+            return image.getRaster().createChild(parentX, parentY - bandY, width, height, childMinX, childMinY, bandList);
+        }
+    }
+
+    private final class LazyDataBuffer extends DataBuffer {
+        private LazyDataBuffer() {
+            super(TYPE_INT, width * height);
+        }
+
+        @Override
+        public int getElem(int bank, int i) {
+            band(i / width);
+            return bandPixels[i - bandY * width];
+        }
+
+        @Override
+        public void setElem(int bank, int i, int val) {
+            throw new UnsupportedOperationException("read only");
+        }
+    }
+}
@@ -0,0 +1,250 @@
+package net.villagerzock.erdplugin.util;
+
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.objects.ObjectArrays;
+
+import java.awt.geom.Rectangle2D;
+import java.util.*;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+/**
+ * Uniform grid over axis aligned world rectangles.
+ * Items are stored in every cell their bounds touch, updates only touch the cells that actually changed.
+ * Query results are returned in insertion order, so they can be used as paint order.
+ */
+public class SpatialGrid<T> {
+    private final double cellSize;
+    private static final Comparator<Entry<?>> BY_ORDER = Comparator.comparingLong(e -> e.order);
+
+    // long-Keys ohne Boxing, sonst legt jede Abfrage pro Zelle ein Long an
+    private final Long2ObjectOpenHashMap<List<Entry<T>>> cells = new Long2ObjectOpenHashMap<>();
+    private final Map<T, Entry<T>> entries = new IdentityHashMap<>();
+    // alle Entries in Einfüge-Reihenfolge, für Abfragen die sowieso alles prüfen.
+    // Entfernte bleiben markiert drin und werden erst aufgeräumt wenn sie die Hälfte ausmachen, remove bleibt so O(Zellen)
+    private final List<Entry<T>> ordered = new ArrayList<>();
+    private int removedInOrdered = 0;
+    private long nextOrder = 0;
+    private int queryStamp = 0;
+    // Treffer der laufenden Abfrage, wird wiederverwendet
+    @SuppressWarnings("unchecked")
+    private Entry<T>[] hits = new Entry[64];
+
+    public SpatialGrid(double cellSize) {
+        this.cellSize = cellSize;
+    }
+
+    private static final class Entry<T> {
+        private final T item;
+        private long order;
+        private double x, y, w, h;
+        private int minCX, minCY, maxCX, maxCY;
+        private int stamp;
+        private boolean removed;
+
+        private Entry(T item) {
+            this.item = item;
+        }
+    }
+
+    /**
+     * Fügt das Item ein oder verschiebt es, falls es schon drin ist.
+     */
+    public void update(T item, double x, double y, double w, double h) {
+        Entry<T> entry = entries.get(item);
+        int minCX = cell(x);
+        int minCY = cell(y);
+        int maxCX = cell(x + Math.max(w, 0));
+        int maxCY = cell(y + Math.max(h, 0));
+
+        if (entry == null) {
+            entry = new Entry<>(item);
+            entry.order = nextOrder++;
+            entries.put(item, entry);
+            ordered.add(entry);
+        } else if (entry.minCX == minCX && entry.minCY == minCY && entry.maxCX == maxCX && entry.maxCY == maxCY) {
+            entry.x = x; entry.y = y; entry.w = w; entry.h = h;
+            return;
+        } else {
+            removeFromCells(entry);
+        }
+
+        entry.x = x; entry.y = y; entry.w = w; entry.h = h;
+        entry.minCX = minCX; entry.minCY = minCY; entry.maxCX = maxCX; entry.maxCY = maxCY;
+        for (int cx = minCX; cx <= maxCX; cx++) {
+            for (int cy = minCY; cy <= maxCY; cy++) {
+                long key = key(cx, cy);
+                List<Entry<T>> cell = cells.get(key);
+                if (cell == null) {
+                    cell = new ArrayList<>(4);
+                    cells.put(key, cell);
+                }
+                cell.add(entry);
+            }
+        }
+    }
+
+    public void remove(T item) {
+        Entry<T> entry = entries.remove(item);
+        if (entry != null) {
+            removeFromCells(entry);
+            entry.removed = true;
+            if (++removedInOrdered > ordered.size() / 2) {
+                ordered.removeIf(e -> e.removed);
+                removedInOrdered = 0;
+            }
+        }
+    }
+
+    public void clear() {
+        cells.clear();
+        entries.clear();
+        ordered.clear();
+        removedInOrdered = 0;
+    }
+
+    public boolean contains(T item) {
+        return entries.containsKey(item);
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    /**
+     * Sammelt alle Items deren Bounds {@code area} schneiden, sortiert nach Einfüge-Reihenfolge.
+     */
+    public List<T> query(Rectangle2D area) {
+        List<T> result = new ArrayList<>();
+        query(area, result);
+        return result;
+    }
+
+    /**
+     * Wie {@link #query(Rectangle2D)}, schreibt die Treffer aber in {@code out} (wird vorher geleert).
+     * Legt im eingeschwungenen Zustand nichts an, gedacht für den Paint-Pfad.
+     */
+    public void query(Rectangle2D area, List<T> out) {
+        out.clear();
+        int minCX = cell(area.getMinX());
+        int minCY = cell(area.getMinY());
+        int maxCX = cell(area.getMaxX());
+        int maxCY = cell(area.getMaxY());
+        long cellCount = (long) (maxCX - minCX + 1) * (maxCY - minCY + 1);
+
+        if (cellCount > cells.size()) {
+            // rausgezoomt (oder kleines Diagramm): mehr Zellen im Bereich als belegte Zellen -> einfach alles prüfen,
+            // dann ist das Ergebnis auch schon in Reihenfolge
+            for (int i = 0; i < ordered.size(); i++) {
+                Entry<T> entry = ordered.get(i);
+                if (!entry.removed && intersects(entry, area)) out.add(entry.item);
+            }
+            return;
+        }
+
+        int count = 0;
+        int stamp = ++queryStamp;
+        for (int cx = minCX; cx <= maxCX; cx++) {
+            for (int cy = minCY; cy <= maxCY; cy++) {
+                List<Entry<T>> cell = cells.get(key(cx, cy));
+                if (cell == null) continue;
+                for (int i = 0; i < cell.size(); i++) {
+                    Entry<T> entry = cell.get(i);
+                    if (entry.stamp == stamp) continue;
+                    entry.stamp = stamp;
+                    if (intersects(entry, area)) count = addHit(count, entry);
+                }
+            }
+        }
+
+        // in place, Arrays.sort legt ab 32 Elementen ein Hilfsarray an
+        ObjectArrays.quickSort(hits, 0, count, BY_ORDER);
+        for (int i = 0; i < count; i++) {
+            out.add(hits[i].item);
+            hits[i] = null;
+        }
+    }
+
+    private int addHit(int count, Entry<T> entry) {
+        if (count == hits.length) hits = Arrays.copyOf(hits, count * 2);
+        hits[count] = entry;
+        return count + 1;
+    }
+
+    /**
+     * Das zuerst eingefügte Item im Bereich, das {@code test} erfüllt, oder null.
+     * Legt keine Objekte an, gedacht für Hit-Tests bei jedem mouseMoved.
+     */
+    public T find(double minX, double minY, double maxX, double maxY, Predicate<? super T> test) {
+        int stamp = ++queryStamp;
+        Entry<T> best = null;
+        int maxCX = cell(maxX);
+        int maxCY = cell(maxY);
+        for (int cx = cell(minX); cx <= maxCX; cx++) {
+            for (int cy = cell(minY); cy <= maxCY; cy++) {
+                List<Entry<T>> cell = cells.get(key(cx, cy));
+                if (cell == null) continue;
+                for (int i = 0; i < cell.size(); i++) {
+                    Entry<T> entry = cell.get(i);
+                    if (entry.stamp == stamp) continue;
+                    entry.stamp = stamp;
+                    if (best != null && entry.order > best.order) continue;
+                    if (entry.x <= maxX && entry.x + entry.w >= minX && entry.y <= maxY && entry.y + entry.h >= minY
+                            && test.test(entry.item)) {
+                        best = entry;
+                    }
+                }
+            }
+        }
+        return best == null ? null : best.item;
+    }
+
+    /**
+     * Ruft {@code visitor} für jedes Item auf dessen Bounds den Bereich schneiden, jedes Item einmal und ohne
+     * bestimmte Reihenfolge. Legt keine Objekte an.
+     */
+    public void forEach(double minX, double minY, double maxX, double maxY, Consumer<? super T> visitor) {
+        int stamp = ++queryStamp;
+        int maxCX = cell(maxX);
+        int maxCY = cell(maxY);
+        for (int cx = cell(minX); cx <= maxCX; cx++) {
+            for (int cy = cell(minY); cy <= maxCY; cy++) {
+                List<Entry<T>> cell = cells.get(key(cx, cy));
+                if (cell == null) continue;
+                for (int i = 0; i < cell.size(); i++) {
+                    Entry<T> entry = cell.get(i);
+                    if (entry.stamp == stamp) continue;
+                    entry.stamp = stamp;
+                    if (entry.x <= maxX && entry.x + entry.w >= minX && entry.y <= maxY && entry.y + entry.h >= minY) {
+                        visitor.accept(entry.item);
+                    }
+                }
+            }
+        }
+    }
+
+    private static boolean intersects(Entry<?> entry, Rectangle2D area) {
+        return entry.x <= area.getMaxX() && entry.x + entry.w >= area.getMinX()
+                && entry.y <= area.getMaxY() && entry.y + entry.h >= area.getMinY();
+    }
+
+    private void removeFromCells(Entry<T> entry) {
+        for (int cx = entry.minCX; cx <= entry.maxCX; cx++) {
+            for (int cy = entry.minCY; cy <= entry.maxCY; cy++) {
+                long key = key(cx, cy);
+                List<Entry<T>> cell = cells.get(key);
+                if (cell == null) continue;
+                cell.remove(entry);
+                if (cell.isEmpty()) cells.remove(key);
+            }
+        }
+    }
+
+    private int cell(double v) {
+        return (int) Math.floor(v / cellSize);
+    }
+
+    private static long key(int cx, int cy) {
+        return ((long) cx << 32) | (cy & 0xffffffffL);
+    }
+}
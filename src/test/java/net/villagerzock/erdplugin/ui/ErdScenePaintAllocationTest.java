@@ -0,0 +1,159 @@
+package net.villagerzock.erdplugin.ui;
+
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.testFramework.fixtures.BasePlatformTestCase;
+import com.intellij.ui.Graphics2DDelegate;
+import net.villagerzock.erdplugin.node.Attribute;
+import net.villagerzock.erdplugin.node.Node;
+import net.villagerzock.erdplugin.node.NodeGraph;
+import net.villagerzock.erdplugin.util.Vector2;
+
+import java.awt.*;
+import java.awt.font.GlyphVector;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.Point2D;
+import java.awt.image.BufferedImage;
+import java.awt.image.ImageObserver;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Ein Frame von {@link ErdCanvas#paintGraph} im eingeschwungenen Zustand legt (fast) nichts an: Spatial-Index-Abfrage,
+ * Layouts, Routen, Display-List und Minimap kommen beim zweiten Zeichnen aus ihren Caches.
+ */
+public class ErdScenePaintAllocationTest extends BasePlatformTestCase {
+    // einmal holen, ManagementFactory legt bei jedem Aufruf etwas an
+    private static final com.sun.management.ThreadMXBean THREADS =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    private static final int COLUMNS = 10;
+    private static final int ROWS = 10;
+    // Graphics.create() / setClip() von Java2D legen pro Frame selbst etwas an (ein paar hundert Bytes pro Aufruf),
+    // unabhängig von der Anzahl der Nodes. Alles was pro Node oder Connection anlegt, reißt das Budget.
+    private static final long BUDGET_BYTES = 8 * 1024;
+
+    public void testSecondPaintStaysWithinBudget() throws IOException {
+        ErdEditorPanel panel = new ErdEditorPanel(getProject(), diagram());
+        try {
+            ErdCanvas canvas = (ErdCanvas) panel.getPreferredFocusComponent();
+            assertNotNull(canvas);
+            assertEquals(COLUMNS * ROWS, panel.getModel().nodes().size());
+            canvas.setSize(800, 600);
+
+            BufferedImage image = new BufferedImage(800, 600, BufferedImage.TYPE_INT_ARGB);
+            Graphics2D g = image.createGraphics();
+            try {
+                // misst, routet, baut die Display-List und das Minimap-Bild
+                canvas.paintGraph(g);
+                assertTrue("first paint left nodes unmeasured", panel.getModel().unmeasuredNodes().isEmpty());
+
+                // Java2D legt beim Rastern selbst pro Primitiv etwas an, gemessen wird nur der Code des Plugins
+                Graphics2D measured = new NoRasterGraphics(g);
+                long before = allocatedBytes();
+                canvas.paintGraph(measured);
+                long allocated = allocatedBytes() - before;
+
+                assertTrue("second paint allocated " + allocated + " bytes", allocated <= BUDGET_BYTES);
+            } finally {
+                g.dispose();
+            }
+        } finally {
+            panel.dispose();
+        }
+    }
+
+    /**
+     * {@code COLUMNS * ROWS} Tabellen im sichtbaren Bereich, jede mit einer Connection zum linken Nachbarn.
+     */
+    private VirtualFile diagram() throws IOException {
+        NodeGraph graph = new NodeGraph(null);
+        Node[][] nodes = new Node[ROWS][COLUMNS];
+        for (int row = 0; row < ROWS; row++) {
+            for (int column = 0; column < COLUMNS; column++) {
+                Node node = node("table_" + row + "_" + column, -380 + column * 75, -280 + row * 55,
+                        new Attribute("id", "INT", true, false, true, true, null),
+                        new Attribute("parent_id", "INT", false, false, false, false, null));
+                graph.addNode(node);
+                nodes[row][column] = node;
+                if (column > 0) {
+                    graph.addConnection(new NodeGraph.Connection(
+                            nodes[row][column - 1], "id", node, "parent_id", NodeGraph.ConnectionType.OneToMany
+                    ));
+                }
+            }
+        }
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ErdIo.write(out, graph, ErdIo.Encoding.JSON);
+        return myFixture.getTempDirFixture().createFile("diagram.erd", out.toString(StandardCharsets.UTF_8));
+    }
+
+    private static Node node(String name, double x, double y, Attribute... attributes) {
+        Map<String, Attribute> attributeMap = new LinkedHashMap<>();
+        for (Attribute attribute : attributes) {
+            attributeMap.put(attribute.name(), attribute);
+        }
+        return new Node(new Point2D.Double(x, y), name, attributeMap, new Vector2(0, 0));
+    }
+
+    private static long allocatedBytes() {
+        return THREADS.getThreadAllocatedBytes(Thread.currentThread().threadId());
+    }
+
+    /**
+     * Reicht Zustand (Farbe, Stroke, Transform, Font) durch, verwirft aber alles was rastern würde.
+     */
+    private static final class NoRasterGraphics extends Graphics2DDelegate {
+        private NoRasterGraphics(Graphics2D g2d) {
+            super(g2d);
+        }
+
+        @Override
+        public Graphics create() {
+            // paintGraph zeichnet fast alles in Kopien
+            return new NoRasterGraphics((Graphics2D) getDelegate().create());
+        }
+
+        @Override
+        public void draw(Shape s) {
+        }
+
+        @Override
+        public void fill(Shape s) {
+        }
+
+        @Override
+        public void drawLine(int x1, int y1, int x2, int y2) {
+        }
+
+        @Override
+        public void fillRect(int x, int y, int width, int height) {
+        }
+
+        @Override
+        public void drawRoundRect(int x, int y, int width, int height, int arcWidth, int arcHeight) {
+        }
+
+        @Override
+        public void fillRoundRect(int x, int y, int width, int height, int arcWidth, int arcHeight) {
+        }
+
+        @Override
+        public boolean drawImage(Image img, int x, int y, int width, int height, ImageObserver observer) {
+            return true;
+        }
+
+        @Override
+        public boolean drawImage(Image img, AffineTransform xform, ImageObserver observer) {
+            return true;
+        }
+
+        @Override
+        public void drawGlyphVector(GlyphVector g, float x, float y) {
+        }
+    }
+}